@@ -0,0 +1,78 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetBlockPool;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The free-index search {@link SubnetInfoProvider} runs on create: build the pool of VPC blocks,
+ * mark what every tagged or associated subnet in the VPC uses, then take the next free slot.
+ * Every fourth subnet is a reservation that is tagged but not associated yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreeIndexSearchBenchmark {
+
+    private static final String OWN_SUBNET_ID = "subnet-ffffffff";
+
+    @Param({
+            "2600:1f18:abcd:1200::/56 64",
+            "2600:1f18:abcd::/48 64",
+            "2600:1f18:abcd:1200::/56 72",
+            "2600:1f18:abcd:1200::/56,2600:1f18:ef01:4500::/56 64"})
+    public String gap;
+
+    @Param({"16", "255"})
+    public int subnetCount;
+
+    private List<CidrBlock> vpcBlocks;
+    private int size;
+    private List<Subnet> subnets;
+
+    @Setup
+    public void setup() {
+        String[] parts = gap.split(" ");
+        vpcBlocks = Arrays.stream(parts[0].split(","))
+                .map(CidrBlock::parse)
+                .collect(Collectors.toList());
+        size = Integer.parseInt(parts[1]);
+
+        CidrBlock vpcBlock = vpcBlocks.get(0);
+        subnets = new ArrayList<>(subnetCount + 1);
+        for (int i = 0; i < subnetCount; i++) {
+            Subnet subnet = new Subnet()
+                    .withSubnetId(String.format("subnet-%08x", i))
+                    .withTags(
+                            new Tag("Name", "subnet-" + i),
+                            new Tag(SubnetTagger.SUBNET_INDEX, Integer.toString(i)),
+                            new Tag(SubnetTagger.VPC_BLOCK, vpcBlock.toString()));
+            if (i % 4 != 3) {
+                subnet.withIpv6CidrBlockAssociationSet(new SubnetIpv6CidrBlockAssociation()
+                        .withIpv6CidrBlock(vpcBlock.nthChild(size, i).toString()));
+            }
+            subnets.add(subnet);
+        }
+        subnets.add(new Subnet().withSubnetId(OWN_SUBNET_ID));
+    }
+
+    @Benchmark
+    public SubnetBlockPool.Slot nextFreeSlot() {
+        SubnetBlockPool pool = new SubnetBlockPool(vpcBlocks, size);
+        SubnetInfoProvider.markUsedIndexes(pool, subnets, OWN_SUBNET_ID);
+        return pool.nextFreeSlot(allocator -> 0);
+    }
+}
@@ -0,0 +1,60 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Enumerating blocks is measured a page at a time, since listing every /80 of a /48 is not
+ * something any handler does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubnetDividerBenchmark {
+
+    @Param({"2600:1f18:abcd:1200::/56 64", "2600:1f18:abcd::/48 64", "2600:1f18:abcd:1200::/56 72", "2600:1f18:abcd::/48 80"})
+    public String gap;
+
+    @Param({"16", "256"})
+    public int subnetCount;
+
+    private SubnetDivider divider;
+    private int size;
+    private int lastIndex;
+    private String lastCidr;
+
+    @Setup
+    public void setup() {
+        String[] parts = gap.split(" ");
+        divider = new SubnetDivider(parts[0]);
+        size = Integer.parseInt(parts[1]);
+        lastIndex = subnetCount - 1;
+        lastCidr = divider.nthSmallCidr(size, lastIndex);
+    }
+
+    @Benchmark
+    public List<String> smallCidrsPage() {
+        return divider.smallCidrs(size, 0, subnetCount);
+    }
+
+    @Benchmark
+    public List<String> streamSmallCidrs() {
+        return divider.streamSmallCidrs(size).limit(subnetCount).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public String nthSmallCidr() {
+        return divider.nthSmallCidr(size, lastIndex);
+    }
+
+    @Benchmark
+    public int rangeIndexOf() {
+        return divider.rangeIndexOf(lastCidr, size);
+    }
+}
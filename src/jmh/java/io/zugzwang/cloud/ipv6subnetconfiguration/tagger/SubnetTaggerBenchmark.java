@@ -0,0 +1,42 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.tagger;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Tag;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubnetTaggerBenchmark {
+
+    /**
+     * How many unrelated tags sit next to the index tag; shared VPCs often carry dozens.
+     */
+    @Param({"1", "10", "50"})
+    public int tagCount;
+
+    private Subnet subnet;
+
+    @Setup
+    public void setup() {
+        List<Tag> tags = new ArrayList<>(tagCount);
+        for (int i = 1; i < tagCount; i++) {
+            tags.add(new Tag("team:tag-" + i, "value-" + i));
+        }
+        tags.add(new Tag(SubnetTagger.SUBNET_INDEX, "137"));
+        subnet = new Subnet().withSubnetId("subnet-00000001").withTags(tags);
+    }
+
+    @Benchmark
+    public Optional<Integer> getSubnetIndexFromTag() {
+        return SubnetTagger.getSubnetIndexFromTag(subnet);
+    }
+}
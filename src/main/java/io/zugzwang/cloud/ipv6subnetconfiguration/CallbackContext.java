@@ -1,12 +1,23 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Data
 @NoArgsConstructor
+@AllArgsConstructor
 @Builder
 public class CallbackContext {
 
+    private String associationId;
+    private int stabilizationAttempts;
+    private long stabilizationStartTime;
+    private boolean cidrReleased;
+    private String vpcId;
+    private Integer reservedIndex;
+    private String reservedVpcCidr;
+    private String reservedCidr;
+    private int reservationAttempts;
 }
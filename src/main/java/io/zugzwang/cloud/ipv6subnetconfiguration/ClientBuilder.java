@@ -0,0 +1,46 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one EC2 client per region for the lifetime of the container, so warm invocations
+ * reuse the connection pool instead of building a new client every time. Credentials are
+ * injected per request by the CloudFormation proxy, so sharing clients across handlers is safe.
+ */
+final class ClientBuilder {
+
+    private static final ConcurrentMap<String, AmazonEC2> EC2_CLIENTS = new ConcurrentHashMap<>();
+
+    private ClientBuilder() {
+    }
+
+    static AmazonEC2 getEc2Client(final String region) {
+        return EC2_CLIENTS.computeIfAbsent(region, ClientBuilder::buildEc2Client);
+    }
+
+    /**
+     * Makes every handler in this container use the given client for the region; tests use it to
+     * plug in a fake.
+     */
+    static void registerEc2Client(final String region, final AmazonEC2 client) {
+        EC2_CLIENTS.put(region, client);
+    }
+
+    /**
+     * Builds a client without SDK-level retries. RetryingInvoker does all retrying, and knows
+     * which calls are safe to send again; stacking both layers would multiply the attempts.
+     */
+    private static AmazonEC2 buildEc2Client(final String region) {
+        return AmazonEC2ClientBuilder.standard()
+                .withRegion(region)
+                .withClientConfiguration(new ClientConfiguration()
+                        .withRetryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY))
+                .build();
+    }
+}
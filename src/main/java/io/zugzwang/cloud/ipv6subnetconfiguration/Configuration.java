@@ -6,6 +6,11 @@ import org.json.JSONTokener;
 
 class Configuration extends BaseConfiguration {
 
+    static {
+        // The generated wrapper builds its configuration while the container initializes.
+        Priming.prime();
+    }
+
     public Configuration() {
         super("zugzwang-cloud-ipv6subnetconfiguration.json");
     }
@@ -1,24 +1,34 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.IndexReservation;
 import io.zugzwang.cloud.ipv6subnetconfiguration.info.SubnetInfo;
 import io.zugzwang.cloud.ipv6subnetconfiguration.info.SubnetInfoProvider;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.VpcTopologyCache;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.IndexPlacement;
 import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.Collections;
-import java.util.Set;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class CreateHandler extends BaseHandler<CallbackContext> {
 
     private AmazonEC2 ec2;
-    private AmazonWebServicesClientProxy proxy;
+    private RetryingInvoker invoker;
     private Logger logger;
 
     @Override
@@ -28,77 +38,270 @@ public class CreateHandler extends BaseHandler<CallbackContext> {
         final CallbackContext callbackContext,
         final Logger logger) {
 
-        this.ec2 = AmazonEC2ClientBuilder.standard().withRegion(request.getRegion()).build();
-        this.proxy = proxy;
+        final CallbackContext context = callbackContext == null ? new CallbackContext() : callbackContext;
+        final InvocationMetrics metrics = new InvocationMetrics("Create");
+        return HandlerMetrics.emitAfter(metrics, context, logger,
+                () -> handle(proxy, request, context, logger, metrics));
+    }
+
+    /**
+     * Runs the create without emitting metrics, so that update can reuse it.
+     */
+    ProgressEvent<ResourceModel, CallbackContext> handle(
+            final AmazonWebServicesClientProxy proxy,
+            final ResourceHandlerRequest<ResourceModel> request,
+            final CallbackContext context,
+            final Logger logger,
+            final InvocationMetrics metrics) {
+
+        this.ec2 = ClientBuilder.getEc2Client(request.getRegion());
+        this.invoker = new RetryingInvoker(proxy, RetryPolicy.DEFAULT, logger, metrics);
         this.logger = logger;
 
         final ResourceModel model = request.getDesiredResourceState();
+        final IndexPlacement placement = IndexPlacement.fromValue(model.getIndexPlacement());
+
+        if (context.getAssociationId() == null) {
+            SubnetInfoProvider provider = new SubnetInfoProvider(ec2, invoker, model.getSubnetId(), logger);
+            if (context.getReservedIndex() == null) {
+                SubnetInfo subnetInfo = provider.loadSubnetInfo(model.getCidrSize(), placement, context.getVpcId());
+                if (!subnetInfo.isAlreadyAllocated() && placement.isContended()) {
+                    return reserveIndex(model, context, subnetInfo);
+                }
+                if (!subnetInfo.isAlreadyAllocated()) {
+                    // Collisions are rare enough to let AssociateSubnetCidrBlock catch them.
+                    recordReservation(model, context, subnetInfo);
+                    return associateReservedBlock(model, context, provider, subnetInfo.getSubnet());
+                }
+
+                logger.log(String.format("Subnet %s already has CIDR association %s, reusing it.",
+                        model.getSubnetId(), subnetInfo.getSubnetCidrId()));
+                SubnetIpv6CidrBlockAssociation association = Translator.activeAssociation(subnetInfo.getSubnet()).get();
+                return afterAssociate(model, context, subnetInfo.getSubnet(), association);
+            }
+
+            // Reservations made before the VPC block was recorded count against every block.
+            Optional<CidrBlock> reservedVpcBlock = Optional.ofNullable(context.getReservedVpcCidr()).map(CidrBlock::parse);
+            List<Subnet> holders = provider.findSubnetsWithIndex(context.getVpcId(), context.getReservedIndex())
+                    .stream()
+                    .filter(holder -> reservedVpcBlock
+                            .map(vpcBlock -> IndexReservation.holdsIndexIn(holder, vpcBlock))
+                            .orElse(true))
+                    .collect(Collectors.toList());
+            if (!IndexReservation.wins(model.getSubnetId(), holders)) {
+                logger.log(String.format("Subnet index %s is contended by %s, picking another.",
+                        context.getReservedIndex(),
+                        holders.stream().map(Subnet::getSubnetId).collect(Collectors.joining(", "))));
+                return retryReservation(model, context, provider);
+            }
+
+            Subnet subnet = holders.stream()
+                    .filter(holder -> model.getSubnetId().equals(holder.getSubnetId()))
+                    .findFirst()
+                    .get();
+            return associateReservedBlock(model, context, provider, subnet);
+        }
 
-        String associationId = createCidrAssociation(model.getSubnetId(), model.getCidrSize(), logger);
-        String cidrBlock = waitForCidrAssociation(model.getSubnetId(), associationId);
+        Subnet subnet = describeSubnet(model.getSubnetId());
+        Optional<SubnetIpv6CidrBlockAssociation> association = checkCidrAssociation(subnet, context.getAssociationId());
+        if (association.isPresent() && isFailed(association.get())) {
+            releaseReservation(model, context);
+            return ProgressEvent.defaultFailureHandler(new IllegalStateException(String.format(
+                    "CIDR association %s on subnet %s is %s: %s",
+                    context.getAssociationId(), model.getSubnetId(),
+                    association.get().getIpv6CidrBlockState().getState(),
+                    association.get().getIpv6CidrBlockState().getStatusMessage())),
+                    HandlerErrorCode.NotStabilized);
+        }
+        if (!association.isPresent() || !isAssociated(association.get())) {
+            ProgressEvent<ResourceModel, CallbackContext> event =
+                    Stabilization.checkAgainLater(model, context, logger, "associated");
+            if (event.getErrorCode() == HandlerErrorCode.NotStabilized) {
+                releaseReservation(model, context);
+            }
+            return event;
+        }
+
+        return completeCreate(model, context, subnet, association.get().getIpv6CidrBlock());
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> completeCreate(
+            ResourceModel model,
+            CallbackContext context,
+            Subnet subnet,
+            String cidrBlock) {
 
-        updateSubnetRouteTable(model.getRouteTableId(), model.getEgressOnlyInternetGatewayId());
-        updateSubnetIpv6AssignmentOnStartup(model.getSubnetId());
+        new DefaultRouteManager(ec2, invoker, logger)
+                .createDefaultRoute(model.getRouteTableId(), model.getEgressOnlyInternetGatewayId());
+        if (!Boolean.TRUE.equals(subnet.getAssignIpv6AddressOnCreation())) {
+            updateSubnetIpv6AssignmentOnStartup(model.getSubnetId());
+        }
 
-        model.setSubnetIPv6CidrAssociationId(associationId);
+        model.setSubnetIPv6CidrAssociationId(context.getAssociationId());
         model.setSubnetIPv6Cidr(cidrBlock);
 
         return ProgressEvent.defaultSuccessHandler(model);
     }
 
-    private String createCidrAssociation(String subnetId, int cidrSize, Logger logger) {
+    private ProgressEvent<ResourceModel, CallbackContext> afterAssociate(
+            ResourceModel model,
+            CallbackContext context,
+            Subnet subnet,
+            SubnetIpv6CidrBlockAssociation association) {
 
-        SubnetInfoProvider provider = new SubnetInfoProvider(ec2, proxy, subnetId, logger);
-        SubnetInfo subnetInfo = provider.loadSubnetInfo(cidrSize);
+        Stabilization.start(context, association.getAssociationId());
+        if (!isAssociated(association)) {
+            return Stabilization.inProgress(model, context);
+        }
+        return completeCreate(model, context, subnet, association.getIpv6CidrBlock());
+    }
 
-        SubnetTagger tagger = new SubnetTagger(ec2, proxy);
-        tagger.tagSubnet(subnetId, subnetInfo.getSubnetIndex());
+    /**
+     * Tags the subnet with the index it intends to use, then waits for concurrent creates in the
+     * same VPC to do the same before checking whether anyone else picked that index.
+     */
+    private ProgressEvent<ResourceModel, CallbackContext> reserveIndex(
+            ResourceModel model,
+            CallbackContext context,
+            SubnetInfo subnetInfo) {
 
-        AssociateSubnetCidrBlockRequest associateRequest = new AssociateSubnetCidrBlockRequest()
-                .withIpv6CidrBlock(subnetInfo.getSubnetCidrBlock())
-                .withSubnetId(subnetId);
+        recordReservation(model, context, subnetInfo);
+        return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                .resourceModel(model)
+                .callbackContext(context)
+                .callbackDelaySeconds(RetryPolicy.RESERVATION.callbackDelaySeconds(context.getReservationAttempts()))
+                .status(OperationStatus.IN_PROGRESS)
+                .build();
+    }
 
-        SubnetIpv6CidrBlockAssociation association = proxy.injectCredentialsAndInvoke(associateRequest, ec2::associateSubnetCidrBlock).getIpv6CidrBlockAssociation();
-        return association.getAssociationId();
+    private void recordReservation(ResourceModel model, CallbackContext context, SubnetInfo subnetInfo) {
+        Optional<Integer> currentIndex = SubnetTagger.getSubnetIndexFromTag(subnetInfo.getSubnet());
+        Optional<CidrBlock> currentVpcBlock = SubnetTagger.getVpcBlockFromTag(subnetInfo.getSubnet());
+        if (!currentIndex.isPresent() || currentIndex.get() != subnetInfo.getSubnetIndex()
+                || !currentVpcBlock.equals(Optional.of(subnetInfo.getVpcCidrBlock()))) {
+            new SubnetTagger(ec2, invoker).tagSubnet(
+                    model.getSubnetId(), subnetInfo.getSubnetIndex(), subnetInfo.getVpcCidrBlock());
+            VpcTopologyCache.shared().recordIndexTag(subnetInfo.getVpcId(), model.getSubnetId(),
+                    subnetInfo.getSubnetIndex(), subnetInfo.getVpcCidrBlock());
+        }
+
+        context.setVpcId(subnetInfo.getVpcId());
+        context.setReservedIndex(subnetInfo.getSubnetIndex());
+        context.setReservedVpcCidr(subnetInfo.getVpcCidrBlock().toString());
+        context.setReservedCidr(subnetInfo.getSubnetCidrBlock().toString());
+        context.setReservationAttempts(context.getReservationAttempts() + 1);
     }
 
-    private String waitForCidrAssociation(String subnetId, String associationId) {
-        while (true) {
-            DescribeSubnetsRequest request = new DescribeSubnetsRequest()
-                    .withSubnetIds(Collections.singleton(subnetId));
-            DescribeSubnetsResult result = proxy.injectCredentialsAndInvoke(request, ec2::describeSubnets);
-            Subnet subnet = result.getSubnets().get(0);
-            if (subnet.getIpv6CidrBlockAssociationSet() == null) {
-                throw new RuntimeException("Ipv6CidrBlockAssociationSet was null for subnet " + subnetId);
-            }
-            for (SubnetIpv6CidrBlockAssociation association : subnet.getIpv6CidrBlockAssociationSet()) {
-                if (!association.getAssociationId().equals(associationId)) {
-                    continue;
-                }
-                if ("associated".equals(association.getIpv6CidrBlockState().getState())) {
-                    return association.getIpv6CidrBlock();
-                }
+    private ProgressEvent<ResourceModel, CallbackContext> associateReservedBlock(
+            ResourceModel model,
+            CallbackContext context,
+            SubnetInfoProvider provider,
+            Subnet subnet) {
+
+        Optional<SubnetIpv6CidrBlockAssociation> association = associateCidrBlock(
+                model.getSubnetId(), context.getReservedCidr());
+        if (!association.isPresent()) {
+            return retryReservation(model, context, provider);
+        }
+        VpcTopologyCache.shared().recordAssociation(context.getVpcId(), model.getSubnetId(), association.get());
+        return afterAssociate(model, context, subnet, association.get());
+    }
+
+    /**
+     * After a collision, picks another index and goes through the full reservation check, since
+     * the subnets that collided are likely still being created side by side. The collision shows
+     * that any cached view of the VPC is out of date, so it is dropped first.
+     */
+    private ProgressEvent<ResourceModel, CallbackContext> retryReservation(
+            ResourceModel model,
+            CallbackContext context,
+            SubnetInfoProvider provider) {
+
+        VpcTopologyCache.shared().invalidate(context.getVpcId());
+        if (RetryPolicy.RESERVATION.isExhausted(context.getReservationAttempts(), 0)) {
+            releaseReservation(model, context);
+            return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                    .resourceModel(model)
+                    .status(OperationStatus.FAILED)
+                    .errorCode(HandlerErrorCode.ResourceConflict)
+                    .message(String.format(
+                            "Could not reserve a subnet index in VPC %s after %s attempts.",
+                            context.getVpcId(), context.getReservationAttempts()))
+                    .build();
+        }
+        IndexPlacement placement = IndexPlacement.fromValue(model.getIndexPlacement());
+        SubnetInfo subnetInfo = provider.loadSubnetInfo(model.getCidrSize(), placement, context.getVpcId());
+        return reserveIndex(model, context, subnetInfo);
+    }
+
+    /**
+     * Removes the reservation tags of a create that is giving up, since nothing else would ever
+     * free the index they hold. A failure here is only logged, so the caller still reports why
+     * the create failed.
+     */
+    private void releaseReservation(ResourceModel model, CallbackContext context) {
+        try {
+            new SubnetTagger(ec2, invoker).untagSubnets(Collections.singletonList(model.getSubnetId()));
+        } catch (AmazonServiceException ex) {
+            logger.log(String.format("Could not release the subnet index reserved by %s: %s",
+                    model.getSubnetId(), ex.getMessage()));
+        }
+        VpcTopologyCache.shared().invalidate(context.getVpcId());
+    }
+
+    /**
+     * Associates the block, or returns nothing if another subnet took it after all.
+     */
+    private Optional<SubnetIpv6CidrBlockAssociation> associateCidrBlock(String subnetId, String cidrBlock) {
+        AssociateSubnetCidrBlockRequest associateRequest = new AssociateSubnetCidrBlockRequest()
+                .withIpv6CidrBlock(cidrBlock)
+                .withSubnetId(subnetId);
+        try {
+            return Optional.of(invoker.invoke(associateRequest, ec2::associateSubnetCidrBlock)
+                    .getIpv6CidrBlockAssociation());
+        } catch (AmazonServiceException ex) {
+            if ("InvalidSubnet.Conflict".equals(ex.getErrorCode())) {
+                logger.log(String.format("Block %s is already in use in the VPC, picking another.", cidrBlock));
+                return Optional.empty();
             }
+            throw ex;
+        }
+    }
 
-            try {
-                Thread.sleep(3000);
-            } catch (Throwable t) { }
+    private Subnet describeSubnet(String subnetId) {
+        DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                .withSubnetIds(Collections.singleton(subnetId));
+        DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
+        return result.getSubnets().get(0);
+    }
+
+    /**
+     * Finds the association the create is waiting on, if the subnet lists it yet.
+     */
+    private Optional<SubnetIpv6CidrBlockAssociation> checkCidrAssociation(Subnet subnet, String associationId) {
+        if (subnet.getIpv6CidrBlockAssociationSet() == null) {
+            throw new RuntimeException("Ipv6CidrBlockAssociationSet was null for subnet " + subnet.getSubnetId());
         }
+        return subnet.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> association.getAssociationId().equals(associationId))
+                .findFirst();
     }
 
-    private void updateSubnetRouteTable(String routeTableId, String egressOnlyInternetGatewayId) {
+    private static boolean isFailed(SubnetIpv6CidrBlockAssociation association) {
+        return association.getIpv6CidrBlockState() != null
+                && ("failed".equals(association.getIpv6CidrBlockState().getState())
+                || "failing".equals(association.getIpv6CidrBlockState().getState()));
+    }
 
-        CreateRouteRequest request = new CreateRouteRequest()
-                .withRouteTableId(routeTableId)
-                .withEgressOnlyInternetGatewayId(egressOnlyInternetGatewayId)
-                .withDestinationIpv6CidrBlock("::/0");
-        proxy.injectCredentialsAndInvoke(request, ec2::createRoute);
+    private static boolean isAssociated(SubnetIpv6CidrBlockAssociation association) {
+        return association.getIpv6CidrBlockState() != null
+                && "associated".equals(association.getIpv6CidrBlockState().getState());
     }
 
     private void updateSubnetIpv6AssignmentOnStartup(String subnetId) {
         ModifySubnetAttributeRequest modifyRequest = new ModifySubnetAttributeRequest();
         modifyRequest.setSubnetId(subnetId);
         modifyRequest.setAssignIpv6AddressOnCreation(true);
-        proxy.injectCredentialsAndInvoke(modifyRequest, ec2::modifySubnetAttribute);
+        invoker.invoke(modifyRequest, ec2::modifySubnetAttribute);
     }
 }
@@ -0,0 +1,129 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.Optional;
+
+/**
+ * Manages the {@code ::/0} route that sends a subnet's IPv6 traffic to its egress-only internet
+ * gateway.
+ */
+class DefaultRouteManager {
+
+    static final String DEFAULT_ROUTE = "::/0";
+
+    private final AmazonEC2 ec2;
+    private final RetryingInvoker invoker;
+    private final Logger logger;
+
+    DefaultRouteManager(final AmazonEC2 ec2, final RetryingInvoker invoker, final Logger logger) {
+        this.ec2 = ec2;
+        this.invoker = invoker;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates the route, replacing it instead if the table already has one. Only one fallback is
+     * attempted; if the replace does not find the route either, its error is rethrown.
+     */
+    void createDefaultRoute(String routeTableId, String egressOnlyInternetGatewayId) {
+        try {
+            createRoute(routeTableId, egressOnlyInternetGatewayId);
+        } catch (AmazonServiceException ex) {
+            if (!"RouteAlreadyExists".equals(ex.getErrorCode())) {
+                throw ex;
+            }
+            replaceRoute(routeTableId, egressOnlyInternetGatewayId);
+        }
+    }
+
+    /**
+     * Points the existing route at the gateway, creating it instead if the table has none. Only
+     * one fallback is attempted; if the create finds a route after all, its error is rethrown.
+     */
+    void replaceDefaultRoute(String routeTableId, String egressOnlyInternetGatewayId) {
+        try {
+            replaceRoute(routeTableId, egressOnlyInternetGatewayId);
+        } catch (AmazonServiceException ex) {
+            if (!"InvalidRoute.NotFound".equals(ex.getErrorCode())) {
+                throw ex;
+            }
+            createRoute(routeTableId, egressOnlyInternetGatewayId);
+        }
+    }
+
+    private void createRoute(String routeTableId, String egressOnlyInternetGatewayId) {
+        CreateRouteRequest request = new CreateRouteRequest()
+                .withRouteTableId(routeTableId)
+                .withEgressOnlyInternetGatewayId(egressOnlyInternetGatewayId)
+                .withDestinationIpv6CidrBlock(DEFAULT_ROUTE);
+        invoker.invoke(request, ec2::createRoute);
+    }
+
+    private void replaceRoute(String routeTableId, String egressOnlyInternetGatewayId) {
+        ReplaceRouteRequest request = new ReplaceRouteRequest()
+                .withRouteTableId(routeTableId)
+                .withEgressOnlyInternetGatewayId(egressOnlyInternetGatewayId)
+                .withDestinationIpv6CidrBlock(DEFAULT_ROUTE);
+        invoker.invoke(request, ec2::replaceRoute);
+    }
+
+    /**
+     * Deletes the route to the gateway, unless the route table is shared with other subnets that
+     * still rely on it.
+     */
+    void removeDefaultRoute(String routeTableId, String egressOnlyInternetGatewayId, String subnetId) {
+        Optional<RouteTable> routeTable = describeRouteTable(routeTableId);
+        if (!routeTable.isPresent() || !hasDefaultRoute(routeTable.get(), egressOnlyInternetGatewayId)) {
+            return;
+        }
+
+        boolean shared = routeTable.get().getAssociations().stream()
+                .anyMatch(association -> Boolean.TRUE.equals(association.getMain())
+                        || (association.getSubnetId() != null && !association.getSubnetId().equals(subnetId)));
+        if (shared) {
+            logger.log(String.format("Route table %s is shared with other subnets, keeping its %s route.",
+                    routeTableId, DEFAULT_ROUTE));
+            return;
+        }
+
+        DeleteRouteRequest request = new DeleteRouteRequest()
+                .withRouteTableId(routeTableId)
+                .withDestinationIpv6CidrBlock(DEFAULT_ROUTE);
+        try {
+            invoker.invoke(request, ec2::deleteRoute);
+        } catch (AmazonServiceException ex) {
+            if (!"InvalidRoute.NotFound".equals(ex.getErrorCode())) {
+                throw ex;
+            }
+        }
+    }
+
+    private Optional<RouteTable> describeRouteTable(String routeTableId) {
+        DescribeRouteTablesRequest request = new DescribeRouteTablesRequest()
+                .withRouteTableIds(routeTableId);
+        try {
+            DescribeRouteTablesResult result = invoker.invoke(request, ec2::describeRouteTables);
+            if (result.getRouteTables() == null) {
+                return Optional.empty();
+            }
+            return result.getRouteTables().stream().findFirst();
+        } catch (AmazonServiceException ex) {
+            if ("InvalidRouteTableID.NotFound".equals(ex.getErrorCode())) {
+                return Optional.empty();
+            }
+            throw ex;
+        }
+    }
+
+    private static boolean hasDefaultRoute(RouteTable routeTable, String egressOnlyInternetGatewayId) {
+        return routeTable.getRoutes() != null && routeTable.getRoutes().stream()
+                .anyMatch(route -> DEFAULT_ROUTE.equals(route.getDestinationIpv6CidrBlock())
+                        && egressOnlyInternetGatewayId != null
+                        && egressOnlyInternetGatewayId.equals(route.getEgressOnlyInternetGatewayId()));
+    }
+}
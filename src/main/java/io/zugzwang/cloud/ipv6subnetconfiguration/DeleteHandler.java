@@ -1,13 +1,28 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.VpcTopologyCache;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.Collections;
+import java.util.Optional;
+
 public class DeleteHandler extends BaseHandler<CallbackContext> {
 
+    private AmazonEC2 ec2;
+    private RetryingInvoker invoker;
+    private Logger logger;
+
     @Override
     public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
         final AmazonWebServicesClientProxy proxy,
@@ -15,10 +30,87 @@ public class DeleteHandler extends BaseHandler<CallbackContext> {
         final CallbackContext callbackContext,
         final Logger logger) {
 
+        final CallbackContext context = callbackContext == null ? new CallbackContext() : callbackContext;
+        final InvocationMetrics metrics = new InvocationMetrics("Delete");
+        return HandlerMetrics.emitAfter(metrics, context, logger,
+                () -> handle(proxy, request, context, logger, metrics));
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> handle(
+            final AmazonWebServicesClientProxy proxy,
+            final ResourceHandlerRequest<ResourceModel> request,
+            final CallbackContext context,
+            final Logger logger,
+            final InvocationMetrics metrics) {
+
+        this.ec2 = ClientBuilder.getEc2Client(request.getRegion());
+        this.invoker = new RetryingInvoker(proxy, RetryPolicy.DEFAULT, logger, metrics);
+        this.logger = logger;
+
         final ResourceModel model = request.getDesiredResourceState();
 
-        // TODO : put your code here
+        Optional<Subnet> subnet = describeSubnet(model.getSubnetId());
+        if (!subnet.isPresent()) {
+            logger.log(String.format("Subnet %s no longer exists, nothing to delete.", model.getSubnetId()));
+            return ProgressEvent.defaultSuccessHandler(null);
+        }
+
+        if (context.getAssociationId() == null) {
+            Optional<SubnetIpv6CidrBlockAssociation> pending = findAssociation(subnet.get(), "disassociating");
+            if (pending.isPresent()) {
+                Stabilization.start(context, pending.get().getAssociationId());
+                return Stabilization.inProgress(model, context);
+            }
+
+            new DefaultRouteManager(ec2, invoker, logger).removeDefaultRoute(
+                    model.getRouteTableId(), model.getEgressOnlyInternetGatewayId(), model.getSubnetId());
+
+            Optional<SubnetIpv6CidrBlockAssociation> association = Translator.activeAssociation(subnet.get());
+            if (association.isPresent()) {
+                disassociateCidrBlock(association.get().getAssociationId());
+                VpcTopologyCache.shared().invalidate(subnet.get().getVpcId());
+                Stabilization.start(context, association.get().getAssociationId());
+                return Stabilization.inProgress(model, context);
+            }
+        } else if (Translator.isStillAssociated(subnet.get(), context.getAssociationId())) {
+            return Stabilization.checkAgainLater(model, context, logger, "disassociated");
+        }
+
+        new SubnetTagger(ec2, invoker).untagLoadedSubnets(Collections.singletonList(subnet.get()));
+        VpcTopologyCache.shared().invalidate(subnet.get().getVpcId());
+        return ProgressEvent.defaultSuccessHandler(null);
+    }
+
+    private Optional<Subnet> describeSubnet(String subnetId) {
+        DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                .withSubnetIds(Collections.singletonList(subnetId));
+        try {
+            DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
+            if (result.getSubnets() == null) {
+                return Optional.empty();
+            }
+            return result.getSubnets().stream().findFirst();
+        } catch (AmazonServiceException ex) {
+            if ("InvalidSubnetID.NotFound".equals(ex.getErrorCode())) {
+                return Optional.empty();
+            }
+            throw ex;
+        }
+    }
+
+    private void disassociateCidrBlock(String associationId) {
+        DisassociateSubnetCidrBlockRequest request = new DisassociateSubnetCidrBlockRequest()
+                .withAssociationId(associationId);
+        invoker.invoke(request, ec2::disassociateSubnetCidrBlock);
+    }
 
-        return ProgressEvent.defaultSuccessHandler(model);
+    private static Optional<SubnetIpv6CidrBlockAssociation> findAssociation(Subnet subnet, String state) {
+        if (subnet.getIpv6CidrBlockAssociationSet() == null) {
+            return Optional.empty();
+        }
+        return subnet.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> association.getIpv6CidrBlockState() != null)
+                .filter(association -> state.equals(association.getIpv6CidrBlockState().getState()))
+                .findFirst();
     }
 }
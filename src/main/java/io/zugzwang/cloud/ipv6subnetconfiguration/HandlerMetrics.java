@@ -0,0 +1,40 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs one handler invocation and then logs its metrics as a single EMF line, whether the
+ * invocation succeeded, asked to be called back, or threw.
+ */
+final class HandlerMetrics {
+
+    private HandlerMetrics() {
+    }
+
+    static ProgressEvent<ResourceModel, CallbackContext> emitAfter(
+            InvocationMetrics metrics,
+            CallbackContext context,
+            Logger logger,
+            Supplier<ProgressEvent<ResourceModel, CallbackContext>> invocation) {
+
+        String status = "EXCEPTION";
+        try {
+            ProgressEvent<ResourceModel, CallbackContext> event = invocation.get();
+            status = String.valueOf(event.getStatus());
+            return event;
+        } finally {
+            metrics.setStatus(status);
+            if (context != null && context.getAssociationId() != null) {
+                metrics.recordCount("StabilizationChecks", context.getStabilizationAttempts());
+            }
+            if (context != null && context.getReservationAttempts() > 0) {
+                metrics.recordCount("ReservationAttempts", context.getReservationAttempts());
+            }
+            logger.log(metrics.toEmf(System.currentTimeMillis()));
+        }
+    }
+}
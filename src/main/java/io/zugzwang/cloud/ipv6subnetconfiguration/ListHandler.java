@@ -1,5 +1,11 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
@@ -7,10 +13,17 @@ import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 public class ListHandler extends BaseHandler<CallbackContext> {
 
+    private static final int PAGE_SIZE = 100;
+
     @Override
     public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
         final AmazonWebServicesClientProxy proxy,
@@ -18,13 +31,122 @@ public class ListHandler extends BaseHandler<CallbackContext> {
         final CallbackContext callbackContext,
         final Logger logger) {
 
+        final InvocationMetrics metrics = new InvocationMetrics("List");
+        final AmazonEC2 ec2 = ClientBuilder.getEc2Client(request.getRegion());
+        final RetryingInvoker invoker = new RetryingInvoker(proxy, RetryPolicy.DEFAULT, logger, metrics);
+        return HandlerMetrics.emitAfter(metrics, callbackContext, logger,
+                () -> list(ec2, invoker, request.getNextToken()));
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> list(
+            final AmazonEC2 ec2,
+            final RetryingInvoker invoker,
+            final String nextToken) {
+
+        DescribeSubnetsRequest subnetsRequest = new DescribeSubnetsRequest()
+                .withFilters(new Filter("tag-key").withValues(SubnetTagger.SUBNET_INDEX))
+                .withMaxResults(PAGE_SIZE)
+                .withNextToken(nextToken);
+        DescribeSubnetsResult subnetsResult = invoker.invoke(subnetsRequest, ec2::describeSubnets);
+
+        List<Subnet> subnets = subnetsResult.getSubnets() == null ? new ArrayList<>() : subnetsResult.getSubnets();
+        Map<String, RouteTable> routeTables = routeTablesBySubnet(ec2, invoker, subnets);
+
         final List<ResourceModel> models = new ArrayList<>();
+        for (Subnet subnet : subnets) {
+            Optional<SubnetIpv6CidrBlockAssociation> association = Translator.activeAssociation(subnet);
+            RouteTable routeTable = routeTables.get(subnet.getSubnetId());
+            if (!association.isPresent() || routeTable == null) {
+                continue;
+            }
 
-        // TODO : put your code here
+            ResourceModel base = ResourceModel.builder()
+                    .routeTableId(routeTable.getRouteTableId())
+                    .egressOnlyInternetGatewayId(defaultEgressOnlyInternetGateway(routeTable))
+                    .build();
+            models.add(Translator.translateFromSubnet(subnet, association.get(), base));
+        }
 
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
             .resourceModels(models)
+            .nextToken(subnetsResult.getNextToken())
             .status(OperationStatus.SUCCESS)
             .build();
     }
+
+    /**
+     * Finds the route table of every subnet on the page: explicitly associated tables first,
+     * then the main table of the VPC for subnets without an explicit association.
+     */
+    private Map<String, RouteTable> routeTablesBySubnet(
+            AmazonEC2 ec2,
+            RetryingInvoker invoker,
+            List<Subnet> subnets) {
+
+        Map<String, RouteTable> routeTables = new HashMap<>();
+        if (subnets.isEmpty()) {
+            return routeTables;
+        }
+
+        List<String> subnetIds = subnets.stream().map(Subnet::getSubnetId).collect(Collectors.toList());
+        for (RouteTable routeTable : describeRouteTables(ec2, invoker, new Filter("association.subnet-id").withValues(subnetIds))) {
+            for (RouteTableAssociation association : routeTable.getAssociations()) {
+                if (association.getSubnetId() != null && subnetIds.contains(association.getSubnetId())) {
+                    routeTables.put(association.getSubnetId(), routeTable);
+                }
+            }
+        }
+
+        List<String> vpcIdsNeedingMainTable = subnets.stream()
+                .filter(subnet -> !routeTables.containsKey(subnet.getSubnetId()))
+                .map(Subnet::getVpcId)
+                .distinct()
+                .collect(Collectors.toList());
+        if (vpcIdsNeedingMainTable.isEmpty()) {
+            return routeTables;
+        }
+
+        Map<String, RouteTable> mainTables = new HashMap<>();
+        for (RouteTable routeTable : describeRouteTables(ec2, invoker,
+                new Filter("association.main").withValues("true"),
+                new Filter("vpc-id").withValues(vpcIdsNeedingMainTable))) {
+            mainTables.put(routeTable.getVpcId(), routeTable);
+        }
+        for (Subnet subnet : subnets) {
+            if (!routeTables.containsKey(subnet.getSubnetId()) && mainTables.containsKey(subnet.getVpcId())) {
+                routeTables.put(subnet.getSubnetId(), mainTables.get(subnet.getVpcId()));
+            }
+        }
+        return routeTables;
+    }
+
+    private Collection<RouteTable> describeRouteTables(AmazonEC2 ec2, RetryingInvoker invoker, Filter... filters) {
+        List<RouteTable> routeTables = new ArrayList<>();
+        String nextToken = null;
+        int pages = 0;
+        do {
+            DescribeRouteTablesRequest request = new DescribeRouteTablesRequest()
+                    .withFilters(filters)
+                    .withNextToken(nextToken);
+            DescribeRouteTablesResult result = invoker.invoke(request, ec2::describeRouteTables);
+            if (result.getRouteTables() != null) {
+                routeTables.addAll(result.getRouteTables());
+            }
+            nextToken = result.getNextToken();
+            pages++;
+        } while (nextToken != null);
+        invoker.getMetrics().recordPages("DescribeRouteTables", pages);
+        return routeTables;
+    }
+
+    private static String defaultEgressOnlyInternetGateway(RouteTable routeTable) {
+        if (routeTable.getRoutes() == null) {
+            return null;
+        }
+        return routeTable.getRoutes().stream()
+                .filter(route -> DefaultRouteManager.DEFAULT_ROUTE.equals(route.getDestinationIpv6CidrBlock()))
+                .map(Route::getEgressOnlyInternetGatewayId)
+                .findFirst()
+                .orElse(null);
+    }
 }
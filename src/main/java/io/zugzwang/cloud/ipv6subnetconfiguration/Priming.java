@@ -0,0 +1,81 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import io.zugzwang.cloud.ipv6subnetconfiguration.logging.HandlerLog;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetDivider;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetIndexAllocator;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the code every invocation needs once while the container initializes, so classes are
+ * loaded and linked before the first request, or before a SnapStart snapshot is taken. Nothing
+ * here calls AWS, and failures are ignored since priming is only an optimization.
+ */
+final class Priming {
+
+    private static final AtomicBoolean PRIMED = new AtomicBoolean();
+
+    private Priming() {
+    }
+
+    static void prime() {
+        if (!PRIMED.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            primeSubnetting();
+            primeJson();
+            primeClients();
+        } catch (RuntimeException | LinkageError ex) {
+            // Priming is best effort; the first real invocation pays for whatever was skipped.
+        }
+    }
+
+    private static void primeSubnetting() {
+        SubnetDivider divider = new SubnetDivider("2600:1f18:abcd:1200::/56");
+        CidrBlock block = divider.nthSmallBlock(64, 17);
+        divider.rangeIndexOf(block.toString(), 64);
+
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(divider.getBigBlock(), 64);
+        allocator.markUsed(block);
+        allocator.nextFreeIndex();
+    }
+
+    private static void primeJson() {
+        try (InputStream schema = Priming.class.getClassLoader()
+                .getResourceAsStream("zugzwang-cloud-ipv6subnetconfiguration.json")) {
+            if (schema != null) {
+                new JSONObject(new JSONTokener(schema));
+            }
+        } catch (IOException ex) {
+            // Best effort, see above.
+        }
+
+        // The handlers' own JSON goes through org.json: structured log lines and EMF metrics.
+        ResourceModel.builder()
+                .subnetId("subnet-00000000")
+                .cidrSize(64)
+                .build();
+        new CallbackContext();
+        new HandlerLog(message -> { }).info("Primed", () -> HandlerLog.fields("subnetId", "subnet-00000000"));
+        InvocationMetrics metrics = new InvocationMetrics("Prime");
+        metrics.recordCall("DescribeSubnets", 1);
+        metrics.toEmf(System.currentTimeMillis());
+    }
+
+    private static void primeClients() {
+        String region = System.getenv("AWS_REGION");
+        if (region != null) {
+            ClientBuilder.getEc2Client(region);
+        }
+        new DescribeSubnetsRequest().withFilters(new Filter("vpc-id").withValues("vpc-00000000"));
+    }
+}
@@ -1,11 +1,22 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.Collections;
+import java.util.Optional;
+
 public class ReadHandler extends BaseHandler<CallbackContext> {
 
     @Override
@@ -15,13 +26,64 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
         final CallbackContext callbackContext,
         final Logger logger) {
 
-        final ResourceModel model = request.getDesiredResourceState();
+        final InvocationMetrics metrics = new InvocationMetrics("Read");
+        final AmazonEC2 ec2 = ClientBuilder.getEc2Client(request.getRegion());
+        final RetryingInvoker invoker = new RetryingInvoker(proxy, RetryPolicy.DEFAULT, logger, metrics);
+        return HandlerMetrics.emitAfter(metrics, callbackContext, logger,
+                () -> read(ec2, invoker, request.getDesiredResourceState()));
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> read(
+            final AmazonEC2 ec2,
+            final RetryingInvoker invoker,
+            final ResourceModel model) {
 
-        // TODO : put your code here
+        Optional<Subnet> subnet = describeSubnet(ec2, invoker, model.getSubnetId());
+        if (!subnet.isPresent() || !SubnetTagger.hasSubnetIndexTag(subnet.get())) {
+            return notFound(model);
+        }
+
+        Optional<SubnetIpv6CidrBlockAssociation> association = Translator.activeAssociation(subnet.get());
+        if (!association.isPresent()) {
+            return notFound(model);
+        }
+
+        ResourceModel readModel = Translator.translateFromSubnet(subnet.get(), association.get(), model);
+        if (!Translator.hasMatchingVpcCidr(readModel)) {
+            DescribeVpcsRequest vpcsRequest = new DescribeVpcsRequest()
+                    .withVpcIds(Collections.singletonList(subnet.get().getVpcId()));
+            Vpc vpc = invoker.invoke(vpcsRequest, ec2::describeVpcs).getVpcs().get(0);
+            readModel.setVpcIPv6Cidr(Translator.containingVpcCidr(vpc, readModel.getSubnetIPv6Cidr()).orElse(null));
+        }
 
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
-            .resourceModel(model)
+            .resourceModel(readModel)
             .status(OperationStatus.SUCCESS)
             .build();
     }
+
+    private Optional<Subnet> describeSubnet(AmazonEC2 ec2, RetryingInvoker invoker, String subnetId) {
+        DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                .withSubnetIds(Collections.singletonList(subnetId));
+        try {
+            DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
+            if (result.getSubnets() == null) {
+                return Optional.empty();
+            }
+            return result.getSubnets().stream().findFirst();
+        } catch (AmazonServiceException ex) {
+            if ("InvalidSubnetID.NotFound".equals(ex.getErrorCode())) {
+                return Optional.empty();
+            }
+            throw ex;
+        }
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> notFound(ResourceModel model) {
+        return ProgressEvent.<ResourceModel, CallbackContext>builder()
+            .status(OperationStatus.FAILED)
+            .errorCode(HandlerErrorCode.NotFound)
+            .message(String.format("Subnet %s has no IPv6 configuration.", model.getSubnetId()))
+            .build();
+    }
 }
@@ -0,0 +1,61 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+/**
+ * Bookkeeping for handlers that wait on an association through callbacks rather than by
+ * sleeping in the handler.
+ */
+final class Stabilization {
+
+    private Stabilization() {
+    }
+
+    static void start(CallbackContext context, String associationId) {
+        context.setAssociationId(associationId);
+        context.setStabilizationAttempts(0);
+        context.setStabilizationStartTime(System.currentTimeMillis());
+    }
+
+    static ProgressEvent<ResourceModel, CallbackContext> inProgress(ResourceModel model, CallbackContext context) {
+        return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                .resourceModel(model)
+                .callbackContext(context)
+                .callbackDelaySeconds(RetryPolicy.POLLING.callbackDelaySeconds(context.getStabilizationAttempts() + 1))
+                .status(OperationStatus.IN_PROGRESS)
+                .build();
+    }
+
+    /**
+     * Records one more check that found the association still pending, and either schedules the
+     * next check or gives up once the polling policy is exhausted.
+     */
+    static ProgressEvent<ResourceModel, CallbackContext> checkAgainLater(
+            ResourceModel model,
+            CallbackContext context,
+            Logger logger,
+            String pendingState) {
+
+        context.setStabilizationAttempts(context.getStabilizationAttempts() + 1);
+        long elapsed = System.currentTimeMillis() - context.getStabilizationStartTime();
+        logger.log(String.format("CIDR association %s is not %s yet (check %s, %s ms elapsed).",
+                context.getAssociationId(), pendingState, context.getStabilizationAttempts(), elapsed));
+
+        if (RetryPolicy.POLLING.isExhausted(context.getStabilizationAttempts(), elapsed)) {
+            return ProgressEvent.<ResourceModel, CallbackContext>builder()
+                    .resourceModel(model)
+                    .status(OperationStatus.FAILED)
+                    .errorCode(HandlerErrorCode.NotStabilized)
+                    .message(String.format(
+                            "CIDR association %s on subnet %s was not %s after %s checks.",
+                            context.getAssociationId(), model.getSubnetId(), pendingState,
+                            context.getStabilizationAttempts()))
+                    .build();
+        }
+        return inProgress(model, context);
+    }
+}
@@ -0,0 +1,99 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import com.amazonaws.services.ec2.model.Vpc;
+import com.amazonaws.services.ec2.model.VpcIpv6CidrBlockAssociation;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+
+import java.util.Optional;
+
+/**
+ * Maps described EC2 subnets and VPCs onto the resource model.
+ */
+final class Translator {
+
+    private Translator() {
+    }
+
+    /**
+     * The subnet's IPv6 association that is associated or on its way there, if any.
+     */
+    static Optional<SubnetIpv6CidrBlockAssociation> activeAssociation(Subnet subnet) {
+        if (subnet.getIpv6CidrBlockAssociationSet() == null) {
+            return Optional.empty();
+        }
+        return subnet.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> association.getIpv6CidrBlockState() != null)
+                .filter(association -> "associated".equals(association.getIpv6CidrBlockState().getState())
+                        || "associating".equals(association.getIpv6CidrBlockState().getState()))
+                .findFirst();
+    }
+
+    /**
+     * Whether the given association is still listed on the subnet and not yet fully released.
+     */
+    static boolean isStillAssociated(Subnet subnet, String associationId) {
+        if (subnet.getIpv6CidrBlockAssociationSet() == null) {
+            return false;
+        }
+        return subnet.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> associationId.equals(association.getAssociationId()))
+                .anyMatch(association -> association.getIpv6CidrBlockState() != null
+                        && !"disassociated".equals(association.getIpv6CidrBlockState().getState()));
+    }
+
+    /**
+     * Builds a model for the subnet. The route table, which forms the primary identifier together
+     * with the subnet ID, is kept from {@code base} along with the gateway and index placement,
+     * since none of them can be read off the subnet itself.
+     */
+    static ResourceModel translateFromSubnet(
+            Subnet subnet,
+            SubnetIpv6CidrBlockAssociation association,
+            ResourceModel base) {
+
+        CidrBlock subnetBlock = CidrBlock.parse(association.getIpv6CidrBlock());
+        return ResourceModel.builder()
+                .subnetId(subnet.getSubnetId())
+                .cidrSize(subnetBlock.getPrefixLength())
+                .routeTableId(base.getRouteTableId())
+                .egressOnlyInternetGatewayId(base.getEgressOnlyInternetGatewayId())
+                .vpcIPv6Cidr(base.getVpcIPv6Cidr())
+                .indexPlacement(base.getIndexPlacement())
+                .subnetIPv6CidrAssociationId(association.getAssociationId())
+                .subnetIPv6Cidr(subnetBlock.toString())
+                .build();
+    }
+
+    /**
+     * Whether the model's VPC block is known and still contains the subnet's block, so the VPC
+     * does not need to be described again.
+     */
+    static boolean hasMatchingVpcCidr(ResourceModel model) {
+        if (model.getVpcIPv6Cidr() == null || model.getSubnetIPv6Cidr() == null) {
+            return false;
+        }
+        try {
+            return CidrBlock.parse(model.getVpcIPv6Cidr()).contains(CidrBlock.parse(model.getSubnetIPv6Cidr()));
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * The VPC block that contains the given subnet block.
+     */
+    static Optional<String> containingVpcCidr(Vpc vpc, String subnetCidr) {
+        if (vpc.getIpv6CidrBlockAssociationSet() == null) {
+            return Optional.empty();
+        }
+        CidrBlock subnetBlock = CidrBlock.parse(subnetCidr);
+        return vpc.getIpv6CidrBlockAssociationSet().stream()
+                .map(VpcIpv6CidrBlockAssociation::getIpv6CidrBlock)
+                .map(CidrBlock::parse)
+                .filter(vpcBlock -> vpcBlock.contains(subnetBlock))
+                .map(CidrBlock::toString)
+                .findFirst();
+    }
+}
@@ -1,13 +1,31 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration;
 
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.VpcTopologyCache;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
-import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Updates the resource in place. A gateway change only replaces the {@code ::/0} route; the CIDR
+ * association is released and recreated only when the block size changes. The route table is
+ * part of the primary identifier, so changing it replaces the resource instead.
+ */
 public class UpdateHandler extends BaseHandler<CallbackContext> {
 
+    private AmazonEC2 ec2;
+    private RetryingInvoker invoker;
+    private Logger logger;
+
     @Override
     public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
         final AmazonWebServicesClientProxy proxy,
@@ -15,13 +33,79 @@ public class UpdateHandler extends BaseHandler<CallbackContext> {
         final CallbackContext callbackContext,
         final Logger logger) {
 
+        final CallbackContext context = callbackContext == null ? new CallbackContext() : callbackContext;
+        final InvocationMetrics metrics = new InvocationMetrics("Update");
+        return HandlerMetrics.emitAfter(metrics, context, logger,
+                () -> handle(proxy, request, context, logger, metrics));
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> handle(
+            final AmazonWebServicesClientProxy proxy,
+            final ResourceHandlerRequest<ResourceModel> request,
+            final CallbackContext context,
+            final Logger logger,
+            final InvocationMetrics metrics) {
+
+        this.ec2 = ClientBuilder.getEc2Client(request.getRegion());
+        this.invoker = new RetryingInvoker(proxy, RetryPolicy.DEFAULT, logger, metrics);
+        this.logger = logger;
+
         final ResourceModel model = request.getDesiredResourceState();
+        final ResourceModel previous = request.getPreviousResourceState() == null
+                ? model
+                : request.getPreviousResourceState();
+
+        if (Objects.equals(previous.getCidrSize(), model.getCidrSize())) {
+            updateDefaultRoute(previous, model);
+            model.setSubnetIPv6CidrAssociationId(previous.getSubnetIPv6CidrAssociationId());
+            model.setSubnetIPv6Cidr(previous.getSubnetIPv6Cidr());
+            return ProgressEvent.defaultSuccessHandler(model);
+        }
 
-        // TODO : put your code here
+        if (!context.isCidrReleased()) {
+            Subnet subnet = describeSubnet(model.getSubnetId());
+            if (context.getAssociationId() == null) {
+                Optional<SubnetIpv6CidrBlockAssociation> association = Translator.activeAssociation(subnet);
+                if (association.isPresent()) {
+                    logger.log(String.format("CIDR size of subnet %s changed from /%s to /%s, releasing %s.",
+                            model.getSubnetId(), previous.getCidrSize(), model.getCidrSize(),
+                            association.get().getIpv6CidrBlock()));
+                    disassociateCidrBlock(association.get().getAssociationId());
+                    VpcTopologyCache.shared().invalidate(subnet.getVpcId());
+                    Stabilization.start(context, association.get().getAssociationId());
+                    return Stabilization.inProgress(model, context);
+                }
+            } else if (Translator.isStillAssociated(subnet, context.getAssociationId())) {
+                return Stabilization.checkAgainLater(model, context, logger, "disassociated");
+            }
+
+            context.setCidrReleased(true);
+            context.setAssociationId(null);
+        }
+
+        // The create path allocates and associates the new block, then points the route at the
+        // desired gateway, replacing the route if the table already has one.
+        return new CreateHandler().handle(proxy, request, context, logger, metrics);
+    }
+
+    private void updateDefaultRoute(ResourceModel previous, ResourceModel model) {
+        if (Objects.equals(previous.getEgressOnlyInternetGatewayId(), model.getEgressOnlyInternetGatewayId())) {
+            return;
+        }
+        new DefaultRouteManager(ec2, invoker, logger)
+                .replaceDefaultRoute(model.getRouteTableId(), model.getEgressOnlyInternetGatewayId());
+    }
+
+    private Subnet describeSubnet(String subnetId) {
+        DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                .withSubnetIds(Collections.singleton(subnetId));
+        DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
+        return result.getSubnets().get(0);
+    }
 
-        return ProgressEvent.<ResourceModel, CallbackContext>builder()
-            .resourceModel(model)
-            .status(OperationStatus.SUCCESS)
-            .build();
+    private void disassociateCidrBlock(String associationId) {
+        DisassociateSubnetCidrBlockRequest request = new DisassociateSubnetCidrBlockRequest()
+                .withAssociationId(associationId);
+        invoker.invoke(request, ec2::disassociateSubnetCidrBlock);
     }
 }
@@ -0,0 +1,69 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which of several subnets that tagged themselves with the same index gets to keep it.
+ * Every contender sees the same tags, so they all reach the same answer without talking to
+ * each other.
+ */
+public final class IndexReservation {
+
+    private IndexReservation() {
+    }
+
+    /**
+     * Whether the given subnet holds the index shared by {@code holders}. A holder that already
+     * has an IPv6 block keeps its index; otherwise the lowest subnet ID wins. A subnet whose own
+     * tag is not visible yet has not won.
+     */
+    public static boolean wins(final String subnetId, final Collection<Subnet> holders) {
+        if (holders.stream().noneMatch(subnet -> subnetId.equals(subnet.getSubnetId()))) {
+            return false;
+        }
+
+        List<Subnet> others = holders.stream()
+                .filter(subnet -> !subnetId.equals(subnet.getSubnetId()))
+                .collect(Collectors.toList());
+
+        if (others.stream().anyMatch(IndexReservation::hasActiveBlock)) {
+            return false;
+        }
+        return others.stream().allMatch(subnet -> subnetId.compareTo(subnet.getSubnetId()) < 0);
+    }
+
+    /**
+     * Whether a subnet tagged with an index holds that index in the given VPC block, since the
+     * same index can be taken once in each block of the VPC. A subnet with a block is placed by
+     * the block itself, otherwise by its VPC block tag; a reservation without that tag predates
+     * it, so it is treated as holding the index in every block.
+     */
+    public static boolean holdsIndexIn(final Subnet subnet, final CidrBlock vpcBlock) {
+        if (hasActiveBlock(subnet)) {
+            return subnet.getIpv6CidrBlockAssociationSet().stream()
+                    .filter(IndexReservation::isActive)
+                    .anyMatch(association -> vpcBlock.overlaps(CidrBlock.parse(association.getIpv6CidrBlock())));
+        }
+        return SubnetTagger.getVpcBlockFromTag(subnet)
+                .map(vpcBlock::equals)
+                .orElse(true);
+    }
+
+    private static boolean hasActiveBlock(Subnet subnet) {
+        return subnet.getIpv6CidrBlockAssociationSet() != null && subnet.getIpv6CidrBlockAssociationSet().stream()
+                .anyMatch(IndexReservation::isActive);
+    }
+
+    private static boolean isActive(SubnetIpv6CidrBlockAssociation association) {
+        return association.getIpv6CidrBlockState() != null
+                && ("associated".equals(association.getIpv6CidrBlockState().getState())
+                    || "associating".equals(association.getIpv6CidrBlockState().getState()));
+    }
+}
@@ -1,21 +1,24 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration.info;
 
 import com.amazonaws.services.ec2.model.Subnet;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
 import lombok.Builder;
 import lombok.Data;
-
-import java.util.List;
+import lombok.ToString;
 
 @Data @Builder
 public class SubnetInfo {
 
     private boolean publicIpv4Enabled;
     private boolean alreadyAllocated;
-    private String subnetCidrBlock;
+    private CidrBlock subnetCidrBlock;
     private String subnetCidrId;
     private String vpcId;
-    private String vpcCidrBlock;
+    private CidrBlock vpcCidrBlock;
     private String vpcCidrId;
-    private List<Subnet> vpcSubnets;
+    @ToString.Exclude
+    private VpcSnapshot vpcSnapshot;
+    @ToString.Exclude
+    private Subnet subnet;
     private int subnetIndex;
 }
@@ -2,7 +2,13 @@ package io.zugzwang.cloud.ipv6subnetconfiguration.info;
 
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.*;
-import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetDivider;
+import io.zugzwang.cloud.ipv6subnetconfiguration.logging.HandlerLog;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryPolicy;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.IndexPlacement;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetBlockPool;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.SubnetIndexAllocator;
 import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.Logger;
@@ -12,48 +18,141 @@ import java.util.stream.Collectors;
 
 public class SubnetInfoProvider {
 
+    /**
+     * The largest page DescribeSubnets hands out.
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String IPV6_STATE_FILTER = "ipv6-cidr-block-association.state";
+
+    /**
+     * Every association state that still holds the block, matching {@link #activeAssociations}.
+     */
+    private static final List<String> ACTIVE_IPV6_STATES = Collections.unmodifiableList(Arrays.asList(
+            "associating", "associated", "disassociating", "failing", "failed"));
+
     private final AmazonEC2 ec2;
-    private final AmazonWebServicesClientProxy clientProxy;
+    private final RetryingInvoker invoker;
     private final String subnetId;
-    final Logger logger;
+    private final VpcTopologyCache cache;
+    final HandlerLog log;
 
     public SubnetInfoProvider(
             final AmazonEC2 ec2,
             final AmazonWebServicesClientProxy clientProxy,
             final String subnetId,
             final Logger logger) {
+        this(ec2, new RetryingInvoker(clientProxy, RetryPolicy.DEFAULT, logger), subnetId, logger);
+    }
+
+    public SubnetInfoProvider(
+            final AmazonEC2 ec2,
+            final RetryingInvoker invoker,
+            final String subnetId,
+            final Logger logger) {
         this.ec2 = ec2;
-        this.clientProxy = clientProxy;
+        this.invoker = invoker;
         this.subnetId = subnetId;
-        this.logger = logger;
+        this.cache = VpcTopologyCache.shared();
+        this.log = new HandlerLog(logger);
     }
 
     public SubnetInfo loadSubnetInfo(int subnetCidrSize) {
-        Subnet thisSubnet = getThisSubnet();
-        String vpcId = thisSubnet.getVpcId();
-        Vpc vpc = getVpc(vpcId);
+        return loadSubnetInfo(subnetCidrSize, IndexPlacement.FIRST_FIT);
+    }
 
-        List<Subnet> vpcSubnets = getVpcSubnets(vpcId);
-        logger.log(String.format("Vpc %s has %s subnets: %s",
-                vpcId,
-                vpcSubnets.size(),
-                String.join(", ", vpcSubnets.stream().map(Subnet::getSubnetId).collect(Collectors.toList()))));
+    public SubnetInfo loadSubnetInfo(int subnetCidrSize, IndexPlacement placement) {
+        return loadSubnetInfo(subnetCidrSize, placement, null);
+    }
 
-        List<Subnet> subnetsWithBlocks = vpcSubnets.stream()
-                .filter(this::subnetHasIPv6Block)
-                .collect(Collectors.toList());
+    /**
+     * Works out which block this subnet should get. A cached snapshot of the VPC is used when
+     * there is one; the index picked from it is checked against the index tags in the VPC, and
+     * the VPC is scanned again if another subnet holds it.
+     *
+     * <p>When the VPC ID is not known yet, this subnet is described first to find it. Once the
+     * caller knows it, this subnet is taken from the VPC listing instead, which it is part of
+     * from the moment it carries a reservation tag; it is only described on its own if the
+     * listing does not return it.
+     */
+    public SubnetInfo loadSubnetInfo(int subnetCidrSize, IndexPlacement placement, String knownVpcId) {
+        Subnet described = knownVpcId == null ? getThisSubnet() : null;
+        String vpcId = knownVpcId == null ? described.getVpcId() : knownVpcId;
+
+        Optional<VpcSnapshot> cached = cache.get(vpcId);
+        if (cached.isPresent()) {
+            VpcSnapshot snapshot = described != null
+                    ? cached.get().withSubnet(described)
+                    : withThisSubnet(cached.get());
+            SubnetInfo info = subnetInfo(snapshot, subnetCidrSize, placement, true);
+            if (info.isAlreadyAllocated() || isUnclaimed(vpcId, info.getSubnetIndex(), info.getVpcCidrBlock())) {
+                return info;
+            }
+            log.info("VpcCacheStale", () -> HandlerLog.fields(
+                    "vpcId", vpcId,
+                    "subnetId", subnetId,
+                    "subnetIndex", info.getSubnetIndex()));
+            cache.invalidate(vpcId);
+        }
 
+        VpcSnapshot snapshot = loadVpcSnapshot(vpcId, described);
+        cache.put(snapshot);
+        return subnetInfo(snapshot, subnetCidrSize, placement, false);
+    }
+
+    private VpcSnapshot withThisSubnet(VpcSnapshot snapshot) {
+        return snapshot.findSubnet(subnetId).isPresent() ? snapshot : snapshot.withSubnet(getThisSubnet());
+    }
+
+    private boolean isUnclaimed(String vpcId, int subnetIndex, CidrBlock vpcBlock) {
+        return findSubnetsWithIndex(vpcId, subnetIndex).stream()
+                .filter(holder -> IndexReservation.holdsIndexIn(holder, vpcBlock))
+                .allMatch(holder -> subnetId.equals(holder.getSubnetId()));
+    }
+
+    private SubnetInfo subnetInfo(
+            VpcSnapshot snapshot,
+            int subnetCidrSize,
+            IndexPlacement placement,
+            boolean fromCache) {
+        String vpcId = snapshot.getVpcId();
+        Vpc vpc = snapshot.getVpc();
+        Subnet thisSubnet = snapshot.findSubnet(subnetId).get();
+
+        List<Subnet> vpcSubnets = snapshot.getSubnets();
         boolean iHaveBlock = subnetHasIPv6Block(thisSubnet);
-        logger.log(String.format(
-                "Status of current subnet %s: Has block? %s",
-                subnetId,
-                iHaveBlock));
+        log.info("VpcLoaded", () -> HandlerLog.fields(
+                "vpcId", vpcId,
+                "subnetId", subnetId,
+                "cached", fromCache,
+                "listedSubnetCount", vpcSubnets.size(),
+                "ipv6SubnetCount", vpcSubnets.stream().filter(this::subnetHasIPv6Block).count(),
+                "hasBlock", iHaveBlock));
+        log.debug("VpcSubnets", () -> HandlerLog.fields(
+                "vpcId", vpcId,
+                "subnetIds", vpcSubnets.stream().map(Subnet::getSubnetId).collect(Collectors.toList())));
+
+        List<VpcIpv6CidrBlockAssociation> vpcBlocks = usableVpcBlocks(vpc);
+        if (vpcBlocks.isEmpty()) {
+            throw new IllegalArgumentException(String.format(
+                    "The subnet provided exists in VPC %s, but that VPC has no valid IPv6 CidrBlockAssociation.",
+                    vpcId));
+        }
+        SubnetBlockPool pool = new SubnetBlockPool(vpcBlocks.stream()
+                .map(association -> CidrBlock.parse(association.getIpv6CidrBlock()))
+                .collect(Collectors.toList()), subnetCidrSize);
 
-        int subnetIndex = subnetsWithBlocks.size();
+        SubnetIndexAllocator allocator;
+        int subnetIndex;
         if (iHaveBlock) {
+            CidrBlock ownBlock = CidrBlock.parse(activeAssociations(thisSubnet).get(0).getIpv6CidrBlock());
+            allocator = pool.allocatorContaining(ownBlock).orElseThrow(() -> new IllegalStateException(String.format(
+                    "Subnet with ID %s has IPv6 block %s, which is in none of the IPv6 blocks of VPC %s.",
+                    subnetId, ownBlock, vpcId)));
             Optional<Integer> maybeIndex = SubnetTagger.getSubnetIndexFromTag(thisSubnet);
             if (maybeIndex.isPresent()) {
                 subnetIndex = maybeIndex.get();
+                allocator.validateIndex(subnetIndex);
             } else {
                 throw new IllegalStateException(String.format(
                         "Subnet with ID %s has an IPv6 block but is missing the index tag.",
@@ -61,44 +160,30 @@ public class SubnetInfoProvider {
                 ));
             }
         } else {
-            boolean foundSubnet = false;
-            Map<Integer, Subnet> indexMap = new HashMap<>();
-            for (Subnet sub : subnetsWithBlocks) {
-                Optional<Integer> indexOptional = SubnetTagger.getSubnetIndexFromTag(sub);
-                int index = indexOptional.get();
-                indexMap.put(index, sub);
-            }
-
-            for (int i = 0; i < Integer.MAX_VALUE; i++) {
-                if (indexMap.containsKey(i)) {
-                    continue;
-                }
-                subnetIndex = i;
-                break;
-            }
+            markUsedIndexes(pool, vpcSubnets, subnetId);
+            SubnetBlockPool.Slot slot = pool.nextFreeSlot(
+                    candidate -> placementStart(placement, thisSubnet, candidate.getCapacity()));
+            allocator = pool.allocatorFor(slot.getVpcBlock()).get();
+            subnetIndex = slot.getIndex();
         }
 
-        String vpcCidrBlock;
-        String vpcCidrAllocationId;
-        if (vpc.getIpv6CidrBlockAssociationSet() != null && vpc.getIpv6CidrBlockAssociationSet().size() > 0) {
-            vpcCidrBlock = vpc.getIpv6CidrBlockAssociationSet().get(0).getIpv6CidrBlock();
-            vpcCidrAllocationId = vpc.getIpv6CidrBlockAssociationSet().get(0).getAssociationId();
-        } else {
-            throw new IllegalArgumentException(String.format(
-                    "The subnet provided exists in VPC %s, but that VPC has no valid IPv6 CidrBlockAssociation.",
-                    vpcId));
-        }
-
-        SubnetDivider divider = new SubnetDivider(vpcCidrBlock);
-        String subnetCidrBlock = divider.nthSmallCidr(subnetCidrSize, subnetIndex);
+        CidrBlock vpcCidrBlock = allocator.getVpcBlock();
+        String vpcCidrAllocationId = vpcBlocks.get(pool.getAllocators().indexOf(allocator)).getAssociationId();
+        CidrBlock subnetCidrBlock = vpcCidrBlock.nthChild(subnetCidrSize, subnetIndex);
         String subnetCidrId = null;
 
-        logger.log(String.format(
-                "Decided subnet %s will have subnet index %s, which divides VPC subnet %s into the smaller subnet %s.",
-                subnetId, subnetIndex, vpcCidrBlock, subnetCidrBlock));
+        final int chosenIndex = subnetIndex;
+        log.info("SubnetIndexChosen", () -> HandlerLog.fields(
+                "subnetId", subnetId,
+                "subnetIndex", chosenIndex,
+                "vpcCidr", vpcCidrBlock.toString(),
+                "vpcCidrCount", pool.getAllocators().size(),
+                "subnetCidr", subnetCidrBlock.toString(),
+                "usedIndexes", pool.getUsedCount(),
+                "capacity", pool.getCapacity()));
 
         if (subnetHasIPv6Block(thisSubnet)) {
-            subnetCidrId = thisSubnet.getIpv6CidrBlockAssociationSet().get(0).getAssociationId();
+            subnetCidrId = activeAssociations(thisSubnet).get(0).getAssociationId();
         }
 
         SubnetInfo info = SubnetInfo.builder()
@@ -106,22 +191,125 @@ public class SubnetInfoProvider {
                 .vpcId(vpcId)
                 .vpcCidrBlock(vpcCidrBlock)
                 .vpcCidrId(vpcCidrAllocationId)
-                .vpcSubnets(vpcSubnets)
+                .vpcSnapshot(snapshot)
+                .subnet(thisSubnet)
                 .subnetCidrBlock(subnetCidrBlock)
                 .subnetCidrId(subnetCidrId)
                 .subnetIndex(subnetIndex)
                 .alreadyAllocated(subnetHasIPv6Block(thisSubnet))
                 .build();
 
-        logger.log(String.format("Final subnet information: %s", info.toString()));
+        log.debug("SubnetInfo", () -> HandlerLog.fields(
+                "info", info.toString(),
+                "subnet", String.valueOf(thisSubnet)));
         return info;
     }
 
+    private static int placementStart(IndexPlacement placement, Subnet subnet, int capacity) {
+        switch (placement) {
+            case SUBNET_ID_HASH:
+                return IndexPlacement.startIndex(subnet.getSubnetId(), capacity);
+            case AVAILABILITY_ZONE_HASH:
+                return IndexPlacement.startIndex(subnet.getAvailabilityZone(), capacity);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The VPC's IPv6 blocks that subnets can be carved from, in the order the VPC lists them.
+     */
+    private static List<VpcIpv6CidrBlockAssociation> usableVpcBlocks(Vpc vpc) {
+        if (vpc.getIpv6CidrBlockAssociationSet() == null) {
+            return Collections.emptyList();
+        }
+        return vpc.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> association.getIpv6CidrBlockState() == null
+                        || "associated".equals(association.getIpv6CidrBlockState().getState()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Marks the blocks the VPC's subnets use in the pool. Subnets that are tagged but not
+     * associated yet are mid-reservation, so their index counts as taken too. The subnet being
+     * configured is skipped, since its own tag is a reservation that is being redone.
+     */
+    static void markUsedIndexes(SubnetBlockPool pool, List<Subnet> vpcSubnets, String subnetId) {
+        for (Subnet subnet : vpcSubnets) {
+            if (!subnetId.equals(subnet.getSubnetId())) {
+                markUsedIndexes(pool, subnet);
+            }
+        }
+    }
+
+    /**
+     * Marks the blocks a subnet uses. Associated blocks are placed by containment; a reservation
+     * that is not associated yet is placed by its VPC block tag, or in the first VPC block if it
+     * was tagged before subnets recorded their VPC block.
+     */
+    private static void markUsedIndexes(SubnetBlockPool pool, Subnet subnet) {
+        List<SubnetIpv6CidrBlockAssociation> associations = activeAssociations(subnet);
+        for (SubnetIpv6CidrBlockAssociation association : associations) {
+            pool.markUsed(CidrBlock.parse(association.getIpv6CidrBlock()));
+        }
+        if (!associations.isEmpty()) {
+            return;
+        }
+
+        Optional<Integer> index = SubnetTagger.getSubnetIndexFromTag(subnet);
+        if (!index.isPresent()) {
+            return;
+        }
+        Optional<SubnetIndexAllocator> allocator = SubnetTagger.getVpcBlockFromTag(subnet)
+                .map(pool::allocatorFor)
+                .orElse(Optional.of(pool.getAllocators().get(0)));
+        allocator.filter(candidate -> candidate.fits(index.get()))
+                .ifPresent(candidate -> candidate.markUsed(index.get()));
+    }
+
+    /**
+     * Describes the subnets in the VPC that are tagged with the given index, which is how
+     * concurrent creates find out whether they reserved the same one.
+     */
+    public List<Subnet> findSubnetsWithIndex(String vpcId, int subnetIndex) {
+        return describeSubnets(
+                new Filter("vpc-id", Collections.singletonList(vpcId)),
+                new Filter("tag:" + SubnetTagger.SUBNET_INDEX,
+                        Collections.singletonList(Integer.toString(subnetIndex))));
+    }
+
+    /**
+     * Describes this subnet's VPC and the subnets in it that can hold an index: the ones with an
+     * IPv6 block and the ones carrying an index tag. This subnet is taken from that listing when
+     * it is in it, so later steps can use the snapshot instead of describing it again.
+     */
+    public VpcSnapshot loadVpcSnapshot() {
+        Subnet thisSubnet = getThisSubnet();
+        return loadVpcSnapshot(thisSubnet.getVpcId(), thisSubnet);
+    }
+
+    /**
+     * Lists the VPC, adding this subnet if the listing leaves it out: the given copy if the caller
+     * already described it, otherwise a fresh description.
+     */
+    private VpcSnapshot loadVpcSnapshot(String vpcId, Subnet described) {
+        Vpc vpc = getVpc(vpcId);
+
+        VpcSnapshot snapshot = VpcSnapshot.builder()
+                .vpc(vpc)
+                .subnets(getVpcSubnets(vpcId))
+                .build();
+        if (snapshot.findSubnet(subnetId).isPresent()) {
+            return snapshot;
+        }
+        return snapshot.withSubnet(described != null ? described : getThisSubnet());
+    }
+
     private Vpc getVpc(String vpcId) {
         DescribeVpcsRequest request = new DescribeVpcsRequest();
         request.setVpcIds(Collections.singletonList(vpcId));
 
-        DescribeVpcsResult result = clientProxy.injectCredentialsAndInvoke(request, ec2::describeVpcs);
+        DescribeVpcsResult result = invoker.invoke(request, ec2::describeVpcs);
         return result.getVpcs().get(0);
     }
 
@@ -129,37 +317,78 @@ public class SubnetInfoProvider {
         DescribeSubnetsRequest request = new DescribeSubnetsRequest();
         request.setSubnetIds(Collections.singletonList(this.subnetId));
 
-        DescribeSubnetsResult result = clientProxy.injectCredentialsAndInvoke(request, ec2::describeSubnets);
+        DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
         return result.getSubnets().get(0);
     }
 
+    /**
+     * Lists the subnets in the VPC that can hold an index: the ones with an IPv6 block and the
+     * ones carrying an index tag. A VPC that fits in one page is filtered here, which costs a
+     * single call. Larger VPCs are left to EC2 to filter, so the number of pages follows the
+     * number of subnets that matter rather than every IPv4-only subnet; EC2 ANDs filters
+     * together, so the IPv6 subnets and the tagged ones are two page chains that get merged.
+     */
     private List<Subnet> getVpcSubnets(String vpcId) {
+        Filter vpcFilter = new Filter("vpc-id", Collections.singletonList(vpcId));
+
+        DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                .withFilters(vpcFilter)
+                .withMaxResults(MAX_PAGE_SIZE);
+        DescribeSubnetsResult firstPage = invoker.invoke(request, ec2::describeSubnets);
+        if (firstPage.getNextToken() == null) {
+            invoker.getMetrics().recordPages("DescribeSubnets", 1);
+            return firstPage.getSubnets() == null ? new ArrayList<>() : firstPage.getSubnets().stream()
+                    .filter(subnet -> subnetHasIPv6Block(subnet) || SubnetTagger.hasSubnetIndexTag(subnet))
+                    .collect(Collectors.toList());
+        }
 
+        Map<String, Subnet> subnets = new LinkedHashMap<>();
+        for (Subnet subnet : describeSubnets(vpcFilter, new Filter(IPV6_STATE_FILTER, ACTIVE_IPV6_STATES))) {
+            subnets.put(subnet.getSubnetId(), subnet);
+        }
+        for (Subnet subnet : describeSubnets(vpcFilter,
+                new Filter("tag-key", Collections.singletonList(SubnetTagger.SUBNET_INDEX)))) {
+            subnets.putIfAbsent(subnet.getSubnetId(), subnet);
+        }
+        return new ArrayList<>(subnets.values());
+    }
+
+    private List<Subnet> describeSubnets(Filter... filters) {
         List<Subnet> subnets = new ArrayList<>();
         String nextToken = null;
+        int pages = 0;
         do {
-            DescribeSubnetsRequest request = new DescribeSubnetsRequest();
-            Filter vpcSubnetFilter = new Filter();
-            vpcSubnetFilter.setName("vpc-id");
-            vpcSubnetFilter.setValues(Collections.singletonList(vpcId));
-            request.setFilters(Collections.singletonList(vpcSubnetFilter));
-            request.setNextToken(nextToken);
-
-            DescribeSubnetsResult result = clientProxy.injectCredentialsAndInvoke(request, ec2::describeSubnets);
+            DescribeSubnetsRequest request = new DescribeSubnetsRequest()
+                    .withFilters(filters)
+                    .withMaxResults(MAX_PAGE_SIZE)
+                    .withNextToken(nextToken);
+
+            DescribeSubnetsResult result = invoker.invoke(request, ec2::describeSubnets);
             if (result.getSubnets() != null) {
                 subnets.addAll(result.getSubnets());
             }
             nextToken = result.getNextToken();
-
+            pages++;
         } while (nextToken != null);
+        invoker.getMetrics().recordPages("DescribeSubnets", pages);
 
         return subnets;
     }
 
     private boolean subnetHasIPv6Block(Subnet subnet) {
-        return subnet.getIpv6CidrBlockAssociationSet() != null && subnet.getIpv6CidrBlockAssociationSet().size() > 0;
+        return !activeAssociations(subnet).isEmpty();
     }
-    private boolean subnetMissingIPv6Block(Subnet subnet) {
-        return subnet.getIpv6CidrBlockAssociationSet() == null || subnet.getIpv6CidrBlockAssociationSet().size() == 0;
+
+    /**
+     * The subnet's IPv6 associations, leaving out ones that were released but are still listed.
+     */
+    private static List<SubnetIpv6CidrBlockAssociation> activeAssociations(Subnet subnet) {
+        if (subnet.getIpv6CidrBlockAssociationSet() == null) {
+            return Collections.emptyList();
+        }
+        return subnet.getIpv6CidrBlockAssociationSet().stream()
+                .filter(association -> association.getIpv6CidrBlockState() == null
+                        || !"disassociated".equals(association.getIpv6CidrBlockState().getState()))
+                .collect(Collectors.toList());
     }
 }
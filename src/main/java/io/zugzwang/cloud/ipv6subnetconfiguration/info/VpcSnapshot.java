@@ -0,0 +1,51 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A VPC and the subnets in it that hold or reserve an IPv6 block, as described in a single pass.
+ */
+@Data @Builder(toBuilder = true)
+public class VpcSnapshot {
+
+    private Vpc vpc;
+    private List<Subnet> subnets;
+
+    public String getVpcId() {
+        return vpc.getVpcId();
+    }
+
+    /**
+     * Summarizes the snapshot rather than rendering every subnet with its tags and associations.
+     */
+    @Override
+    public String toString() {
+        return String.format("VpcSnapshot(vpcId=%s, subnets=%s)",
+                vpc == null ? null : vpc.getVpcId(),
+                subnets == null ? 0 : subnets.size());
+    }
+
+    public Optional<Subnet> findSubnet(String subnetId) {
+        return subnets.stream()
+                .filter(subnet -> subnetId.equals(subnet.getSubnetId()))
+                .findFirst();
+    }
+
+    /**
+     * Returns a copy of the snapshot with the given subnet in place of the listed one, or added
+     * if it is not listed yet.
+     */
+    public VpcSnapshot withSubnet(Subnet fresh) {
+        List<Subnet> updated = new ArrayList<>(subnets);
+        updated.removeIf(subnet -> fresh.getSubnetId().equals(subnet.getSubnetId()));
+        updated.add(fresh);
+        return toBuilder().subnets(updated).build();
+    }
+}
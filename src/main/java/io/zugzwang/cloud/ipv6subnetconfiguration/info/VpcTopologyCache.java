@@ -0,0 +1,158 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps recent {@link VpcSnapshot}s for the lifetime of the container, so that a burst of
+ * creates in one VPC does not describe every subnet in it again on each invocation.
+ *
+ * <p>Entries live for a short time and the least recently used one is dropped once the cache is
+ * full. Handlers patch entries after their own tag and association calls, and invalidate them
+ * once they see evidence that the snapshot is stale; changes made by other containers are only
+ * picked up when the entry expires, which is why callers re-validate a chosen index before
+ * relying on it.
+ */
+public class VpcTopologyCache {
+
+    static final int MAX_ENTRIES = 64;
+    static final long TTL_MILLIS = 30_000;
+
+    private static final VpcTopologyCache SHARED =
+            new VpcTopologyCache(MAX_ENTRIES, TTL_MILLIS, System::currentTimeMillis);
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries;
+
+    VpcTopologyCache(final int maxEntries, final long ttlMillis, final LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static VpcTopologyCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the cached snapshot of the VPC, unless there is none or it has expired.
+     */
+    public synchronized Optional<VpcSnapshot> get(final String vpcId) {
+        Entry entry = entries.get(vpcId);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (clock.getAsLong() - entry.loadedAt >= ttlMillis) {
+            entries.remove(vpcId);
+            return Optional.empty();
+        }
+        return Optional.of(entry.snapshot.toBuilder()
+                .subnets(new ArrayList<>(entry.snapshot.getSubnets()))
+                .build());
+    }
+
+    public synchronized void put(final VpcSnapshot snapshot) {
+        VpcSnapshot copy = snapshot.toBuilder()
+                .subnets(new ArrayList<>(snapshot.getSubnets()))
+                .build();
+        entries.put(snapshot.getVpcId(), new Entry(copy, clock.getAsLong()));
+    }
+
+    public synchronized void invalidate(final String vpcId) {
+        if (vpcId != null) {
+            entries.remove(vpcId);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Applies a {@code CreateTags} call that set the index and VPC block tags on a subnet to the
+     * cached snapshot.
+     */
+    public void recordIndexTag(
+            final String vpcId,
+            final String subnetId,
+            final int subnetIndex,
+            final CidrBlock vpcBlock) {
+        patchSubnet(vpcId, subnetId, subnet -> {
+            List<Tag> tags = subnet.getTags() == null ? new ArrayList<>() : subnet.getTags().stream()
+                    .filter(tag -> !SubnetTagger.SUBNET_INDEX.equals(tag.getKey()))
+                    .filter(tag -> !SubnetTagger.VPC_BLOCK.equals(tag.getKey()))
+                    .collect(Collectors.toList());
+            tags.add(new Tag(SubnetTagger.SUBNET_INDEX, Integer.toString(subnetIndex)));
+            tags.add(new Tag(SubnetTagger.VPC_BLOCK, vpcBlock.toString()));
+            subnet.setTags(tags);
+            return subnet;
+        });
+    }
+
+    /**
+     * Applies an {@code AssociateSubnetCidrBlock} call to the cached snapshot.
+     */
+    public void recordAssociation(
+            final String vpcId,
+            final String subnetId,
+            final SubnetIpv6CidrBlockAssociation association) {
+        patchSubnet(vpcId, subnetId, subnet -> {
+            List<SubnetIpv6CidrBlockAssociation> associations = subnet.getIpv6CidrBlockAssociationSet() == null
+                    ? new ArrayList<>()
+                    : new ArrayList<>(subnet.getIpv6CidrBlockAssociationSet());
+            associations.add(association);
+            subnet.setIpv6CidrBlockAssociationSet(associations);
+            return subnet;
+        });
+    }
+
+    /**
+     * Replaces a cached subnet with a patched copy, so snapshots already handed out stay as they
+     * were. Patching does not extend the entry's lifetime. Subnets that are not cached are left
+     * alone, since the next full load will see them anyway.
+     */
+    private synchronized void patchSubnet(
+            final String vpcId,
+            final String subnetId,
+            final UnaryOperator<Subnet> patch) {
+        Entry entry = entries.get(vpcId);
+        if (entry == null) {
+            return;
+        }
+        List<Subnet> subnets = new ArrayList<>(entry.snapshot.getSubnets());
+        for (int i = 0; i < subnets.size(); i++) {
+            if (subnetId.equals(subnets.get(i).getSubnetId())) {
+                subnets.set(i, patch.apply(subnets.get(i).clone()));
+            }
+        }
+        entry.snapshot = entry.snapshot.toBuilder().subnets(subnets).build();
+    }
+
+    private static final class Entry {
+        private VpcSnapshot snapshot;
+        private final long loadedAt;
+
+        private Entry(final VpcSnapshot snapshot, final long loadedAt) {
+            this.snapshot = snapshot;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
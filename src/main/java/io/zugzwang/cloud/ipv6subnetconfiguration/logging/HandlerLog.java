@@ -0,0 +1,85 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.logging;
+
+import org.json.JSONObject;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Leveled, structured logging on top of the rpdk {@link Logger}. Each event is one JSON line,
+ * and its fields are only computed when the event's level is enabled. The threshold comes from
+ * the {@value #LEVEL_VARIABLE} environment variable and defaults to {@link Level#INFO}.
+ */
+public class HandlerLog {
+
+    public enum Level { DEBUG, INFO, WARN }
+
+    static final String LEVEL_VARIABLE = "LOG_LEVEL";
+
+    private static final Level DEFAULT_THRESHOLD = parseLevel(System.getenv(LEVEL_VARIABLE));
+
+    private final Logger logger;
+    private final Level threshold;
+
+    public HandlerLog(final Logger logger) {
+        this(logger, DEFAULT_THRESHOLD);
+    }
+
+    public HandlerLog(final Logger logger, final Level threshold) {
+        this.logger = logger;
+        this.threshold = threshold;
+    }
+
+    public boolean isEnabled(final Level level) {
+        return logger != null && level.compareTo(threshold) >= 0;
+    }
+
+    public void debug(final String event, final Supplier<Map<String, Object>> fields) {
+        log(Level.DEBUG, event, fields);
+    }
+
+    public void info(final String event, final Supplier<Map<String, Object>> fields) {
+        log(Level.INFO, event, fields);
+    }
+
+    public void warn(final String event, final Supplier<Map<String, Object>> fields) {
+        log(Level.WARN, event, fields);
+    }
+
+    public void log(final Level level, final String event, final Supplier<Map<String, Object>> fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        JSONObject line = new JSONObject(fields.get());
+        line.put("level", level.name());
+        line.put("event", event);
+        logger.log(line.toString());
+    }
+
+    /**
+     * Builds an ordered field map from alternating keys and values.
+     */
+    public static Map<String, Object> fields(final Object... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Fields must come in key and value pairs.");
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            fields.put(String.valueOf(keysAndValues[i]), keysAndValues[i + 1]);
+        }
+        return fields;
+    }
+
+    static Level parseLevel(final String value) {
+        if (value == null) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return Level.INFO;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects what one handler invocation spent on EC2: latency, call, throttle, error and page
+ * counts per operation. {@link #toEmf(long)} renders them as a single CloudWatch Embedded Metric
+ * Format line, which CloudWatch turns into metrics when it is written to the handler's log.
+ */
+public class InvocationMetrics {
+
+    public static final String NAMESPACE = "Zugzwang/IPv6SubnetConfiguration";
+
+    /**
+     * The most values EMF accepts for one metric in one line.
+     */
+    static final int MAX_VALUES = 100;
+
+    private final String action;
+    private final long startMillis;
+    private final Map<String, OperationMetrics> operations = new TreeMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private String status;
+
+    public InvocationMetrics(final String action) {
+        this(action, System.currentTimeMillis());
+    }
+
+    InvocationMetrics(final String action, final long startMillis) {
+        this.action = action;
+        this.startMillis = startMillis;
+    }
+
+    public void recordCall(final String operation, final long latencyMillis) {
+        OperationMetrics metrics = operation(operation);
+        metrics.calls++;
+        if (metrics.latencies.size() < MAX_VALUES) {
+            metrics.latencies.add(latencyMillis);
+        }
+    }
+
+    public void recordThrottle(final String operation) {
+        operation(operation).throttles++;
+    }
+
+    public void recordError(final String operation) {
+        operation(operation).errors++;
+    }
+
+    /**
+     * Records how many pages one paginated listing took.
+     */
+    public void recordPages(final String operation, final int pages) {
+        OperationMetrics metrics = operation(operation);
+        metrics.maxPages = Math.max(metrics.maxPages, pages);
+    }
+
+    /**
+     * Sets a count that is not tied to an EC2 operation, such as how often a handler has checked
+     * on an association.
+     */
+    public void recordCount(final String name, final long value) {
+        counters.put(name, value);
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
+    public int getCallCount(final String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        return metrics == null ? 0 : metrics.calls;
+    }
+
+    public String toEmf(final long nowMillis) {
+        JSONArray definitions = new JSONArray();
+        JSONObject line = new JSONObject();
+
+        int totalCalls = 0;
+        int totalThrottles = 0;
+        for (Map.Entry<String, OperationMetrics> entry : operations.entrySet()) {
+            String operation = entry.getKey();
+            OperationMetrics metrics = entry.getValue();
+            totalCalls += metrics.calls;
+            totalThrottles += metrics.throttles;
+
+            put(line, definitions, operation + "Calls", metrics.calls, "Count");
+            if (!metrics.latencies.isEmpty()) {
+                put(line, definitions, operation + "Latency", new JSONArray(metrics.latencies), "Milliseconds");
+            }
+            if (metrics.throttles > 0) {
+                put(line, definitions, operation + "Throttles", metrics.throttles, "Count");
+            }
+            if (metrics.errors > 0) {
+                put(line, definitions, operation + "Errors", metrics.errors, "Count");
+            }
+            if (metrics.maxPages > 0) {
+                put(line, definitions, operation + "Pages", metrics.maxPages, "Count");
+            }
+        }
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            put(line, definitions, entry.getKey(), entry.getValue(), "Count");
+        }
+        put(line, definitions, "ApiCalls", totalCalls, "Count");
+        put(line, definitions, "Throttles", totalThrottles, "Count");
+        put(line, definitions, "Duration", nowMillis - startMillis, "Milliseconds");
+
+        JSONObject directive = new JSONObject()
+                .put("Namespace", NAMESPACE)
+                .put("Dimensions", new JSONArray().put(new JSONArray().put("Action")))
+                .put("Metrics", definitions);
+        line.put("_aws", new JSONObject()
+                .put("Timestamp", nowMillis)
+                .put("CloudWatchMetrics", new JSONArray().put(directive)));
+        line.put("Action", action);
+        if (status != null) {
+            line.put("Status", status);
+        }
+        return line.toString();
+    }
+
+    private static void put(JSONObject line, JSONArray definitions, String name, Object value, String unit) {
+        line.put(name, value);
+        definitions.put(new JSONObject().put("Name", name).put("Unit", unit));
+    }
+
+    private OperationMetrics operation(final String operation) {
+        return operations.computeIfAbsent(operation, key -> new OperationMetrics());
+    }
+
+    private static class OperationMetrics {
+        private int calls;
+        private int throttles;
+        private int errors;
+        private int maxPages;
+        private final List<Long> latencies = new ArrayList<>();
+    }
+}
@@ -0,0 +1,100 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.retry;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with equal jitter, bounded both by a number of attempts and by an overall
+ * deadline. Used for EC2 calls that get throttled and for polling between handler callbacks.
+ */
+@Getter
+@Builder
+public class RetryPolicy {
+
+    private static final Set<String> THROTTLING_ERROR_CODES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "RequestLimitExceeded",
+            "Throttling",
+            "ThrottlingException",
+            "ThrottledException",
+            "RequestThrottled",
+            "RequestThrottledException",
+            "TooManyRequestsException",
+            "SlowDown",
+            "PriorRequestNotComplete")));
+
+    public static final RetryPolicy DEFAULT = RetryPolicy.builder().build();
+
+    public static final RetryPolicy POLLING = RetryPolicy.builder()
+            .maxAttempts(60)
+            .baseDelayMillis(2_000)
+            .maxDelayMillis(30_000)
+            .deadlineMillis(15 * 60 * 1_000)
+            .build();
+
+    /**
+     * How long to let concurrent creates tag their subnets before checking for a collision, and
+     * how many collisions to tolerate before giving up.
+     */
+    public static final RetryPolicy RESERVATION = RetryPolicy.builder()
+            .maxAttempts(6)
+            .baseDelayMillis(2_000)
+            .maxDelayMillis(15_000)
+            .deadlineMillis(5 * 60 * 1_000)
+            .build();
+
+    @Builder.Default
+    private final int maxAttempts = 8;
+
+    @Builder.Default
+    private final long baseDelayMillis = 200;
+
+    @Builder.Default
+    private final long maxDelayMillis = 10_000;
+
+    @Builder.Default
+    private final long deadlineMillis = 45_000;
+
+    /**
+     * The delay before the given retry, where the first retry is attempt 1. It is drawn between
+     * half the exponential ceiling and the ceiling, so retries never bunch up near zero.
+     */
+    public long delayMillis(final int attempt) {
+        int exponent = Math.max(0, Math.min(attempt - 1, 30));
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << exponent);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    /**
+     * The delay before the given poll, rounded up to the whole seconds a handler callback takes.
+     */
+    public int callbackDelaySeconds(final int attempt) {
+        return (int)Math.max(1, (delayMillis(attempt) + 999) / 1_000);
+    }
+
+    public boolean isExhausted(final int attempt, final long elapsedMillis) {
+        return attempt >= maxAttempts || elapsedMillis >= deadlineMillis;
+    }
+
+    public static boolean isThrottling(final AmazonServiceException ex) {
+        return ex.getStatusCode() == 429 || THROTTLING_ERROR_CODES.contains(ex.getErrorCode());
+    }
+
+    public static boolean isRetryable(final RuntimeException ex) {
+        if (ex instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException)ex;
+            return isThrottling(serviceException) || serviceException.getStatusCode() >= 500;
+        }
+        return ex instanceof SdkClientException && ((SdkClientException)ex).isRetryable();
+    }
+}
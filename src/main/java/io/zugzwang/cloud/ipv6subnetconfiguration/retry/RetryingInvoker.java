@@ -0,0 +1,137 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.retry;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.AmazonWebServiceResult;
+import com.amazonaws.ResponseMetadata;
+import io.zugzwang.cloud.ipv6subnetconfiguration.metrics.InvocationMetrics;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Sends EC2 calls through the CloudFormation proxy, retrying throttled and transient failures
+ * according to a {@link RetryPolicy}. This is the only retry layer: the shared EC2 clients have
+ * SDK-level retries turned off, so the policy's attempts are the real attempt budget.
+ */
+public class RetryingInvoker {
+
+    /**
+     * Calls that may have taken effect even though they timed out or failed with a server error,
+     * and that fail or misbehave when sent again. These are only retried when throttled, since a
+     * throttled request was rejected before doing anything. Tag writes are left out: writing the
+     * same tags twice leaves the subnet as writing them once does.
+     */
+    static final Set<String> NON_IDEMPOTENT_OPERATIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "AssociateSubnetCidrBlock",
+            "DisassociateSubnetCidrBlock",
+            "CreateRoute")));
+
+    private final AmazonWebServicesClientProxy clientProxy;
+    private final RetryPolicy policy;
+    private final Logger logger;
+    private final InvocationMetrics metrics;
+
+    public RetryingInvoker(final AmazonWebServicesClientProxy clientProxy) {
+        this(clientProxy, RetryPolicy.DEFAULT, null);
+    }
+
+    public RetryingInvoker(
+            final AmazonWebServicesClientProxy clientProxy,
+            final RetryPolicy policy,
+            final Logger logger) {
+        this(clientProxy, policy, logger, new InvocationMetrics("Unknown"));
+    }
+
+    public RetryingInvoker(
+            final AmazonWebServicesClientProxy clientProxy,
+            final RetryPolicy policy,
+            final Logger logger,
+            final InvocationMetrics metrics) {
+        this.clientProxy = clientProxy;
+        this.policy = policy;
+        this.logger = logger;
+        this.metrics = metrics;
+    }
+
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public <RequestT extends AmazonWebServiceRequest, ResultT extends AmazonWebServiceResult<ResponseMetadata>>
+    ResultT invoke(final RequestT request, final Function<RequestT, ResultT> requestFunction) {
+
+        String operation = operationName(request);
+        boolean idempotent = !NON_IDEMPOTENT_OPERATIONS.contains(operation);
+        long start = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
+            long attemptStart = System.currentTimeMillis();
+            try {
+                ResultT result = clientProxy.injectCredentialsAndInvoke(request, requestFunction);
+                metrics.recordCall(operation, System.currentTimeMillis() - attemptStart);
+                if (attempt > 1) {
+                    log(String.format("%s succeeded on attempt %s after %s ms.",
+                            operation, attempt, System.currentTimeMillis() - start));
+                }
+                return result;
+            } catch (RuntimeException ex) {
+                metrics.recordCall(operation, System.currentTimeMillis() - attemptStart);
+                boolean throttled = ex instanceof AmazonServiceException
+                        && RetryPolicy.isThrottling((AmazonServiceException)ex);
+                if (throttled) {
+                    metrics.recordThrottle(operation);
+                } else {
+                    metrics.recordError(operation);
+                }
+
+                long elapsed = System.currentTimeMillis() - start;
+                boolean retryable = idempotent ? RetryPolicy.isRetryable(ex) : throttled;
+                if (!retryable || policy.isExhausted(attempt, elapsed)) {
+                    log(String.format("%s failed on attempt %s after %s ms: %s",
+                            operation, attempt, elapsed, ex.getMessage()));
+                    throw ex;
+                }
+
+                long delay = Math.min(policy.delayMillis(attempt), policy.getDeadlineMillis() - elapsed);
+                log(String.format("%s attempt %s was %s after %s ms, retrying in %s ms.",
+                        operation, attempt, describe(ex), elapsed, delay));
+                sleep(delay, ex);
+            }
+        }
+    }
+
+    private void sleep(final long delayMillis, final RuntimeException cause) {
+        if (delayMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    private void log(final String message) {
+        if (logger != null) {
+            logger.log(message);
+        }
+    }
+
+    private static String describe(final RuntimeException ex) {
+        if (ex instanceof AmazonServiceException && RetryPolicy.isThrottling((AmazonServiceException)ex)) {
+            return "throttled";
+        }
+        return "a transient failure";
+    }
+
+    static String operationName(final AmazonWebServiceRequest request) {
+        String name = request.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - "Request".length()) : name;
+    }
+}
@@ -0,0 +1,423 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+/**
+ * An immutable CIDR block held as a 128-bit value split over two longs. IPv4 blocks are kept
+ * in the low 32 bits, and all arithmetic is done on the value's position within 128 bits so
+ * both families share the same code paths.
+ */
+public final class CidrBlock implements Comparable<CidrBlock> {
+
+    public static final int IPV4_BIT_COUNT = 32;
+    public static final int IPV6_BIT_COUNT = 128;
+
+    private static final int IPV6_GROUP_COUNT = 8;
+
+    private final long high;
+    private final long low;
+    private final int prefixLength;
+    private final boolean ipv6;
+
+    private CidrBlock(final long high, final long low, final int prefixLength, final boolean ipv6) {
+        this.high = high;
+        this.low = low;
+        this.prefixLength = prefixLength;
+        this.ipv6 = ipv6;
+    }
+
+    public static CidrBlock ipv6(final long high, final long low, final int prefixLength) {
+        checkPrefixLength(prefixLength, IPV6_BIT_COUNT);
+        return new CidrBlock(high, low, prefixLength, true);
+    }
+
+    public static CidrBlock ipv4(final int value, final int prefixLength) {
+        checkPrefixLength(prefixLength, IPV4_BIT_COUNT);
+        return new CidrBlock(0, Integer.toUnsignedLong(value), prefixLength, false);
+    }
+
+    /**
+     * Parses a block such as {@code 2600:1f18:abcd:1200::/56} or {@code 10.0.0.0/16}. When the
+     * prefix length is omitted the block covers a single address.
+     */
+    public static CidrBlock parse(final String cidr) {
+        if (cidr == null) {
+            throw new IllegalArgumentException("CIDR block must not be null.");
+        }
+
+        String text = cidr.trim();
+        int slash = text.indexOf('/');
+        String addressText = slash < 0 ? text : text.substring(0, slash);
+        boolean isIpv6 = addressText.indexOf(':') >= 0;
+        int bitCount = isIpv6 ? IPV6_BIT_COUNT : IPV4_BIT_COUNT;
+
+        int prefix = bitCount;
+        if (slash >= 0) {
+            prefix = parseDecimal(text.substring(slash + 1), bitCount, cidr);
+        }
+
+        if (isIpv6) {
+            long[] value = parseIpv6(addressText, cidr);
+            return new CidrBlock(value[0], value[1], prefix, true);
+        }
+        return new CidrBlock(0, Integer.toUnsignedLong(parseIpv4(addressText, cidr)), prefix, false);
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    public int getBitCount() {
+        return ipv6 ? IPV6_BIT_COUNT : IPV4_BIT_COUNT;
+    }
+
+    /**
+     * Whether every host bit of this block is zero, i.e. the value is the start of the block.
+     */
+    public boolean isAligned() {
+        return (high & ~highMask()) == 0 && (low & ~lowMask()) == 0;
+    }
+
+    /**
+     * This block with its host bits cleared.
+     */
+    public CidrBlock network() {
+        if (isAligned()) {
+            return this;
+        }
+        return new CidrBlock(high & highMask(), low & lowMask(), prefixLength, ipv6);
+    }
+
+    /**
+     * The same value with a different prefix length; host bits are kept as they are.
+     */
+    public CidrBlock withPrefixLength(final int newPrefixLength) {
+        checkPrefixLength(newPrefixLength, getBitCount());
+        return new CidrBlock(high, low, newPrefixLength, ipv6);
+    }
+
+    public boolean contains(final CidrBlock other) {
+        if (other.ipv6 != ipv6 || other.prefixLength < prefixLength) {
+            return false;
+        }
+        return (other.high & highMask()) == (high & highMask())
+                && (other.low & lowMask()) == (low & lowMask());
+    }
+
+    public boolean overlaps(final CidrBlock other) {
+        return contains(other) || other.contains(this);
+    }
+
+    /**
+     * The number of blocks of the given size this block divides into, saturating at
+     * {@link Long#MAX_VALUE}.
+     */
+    public long childCount(final int size) {
+        checkChildSize(size);
+        int exponent = size - prefixLength;
+        return exponent >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << exponent;
+    }
+
+    /**
+     * Computes the n-th block of the given size inside this block.
+     */
+    public CidrBlock nthChild(final int size, final long n) {
+        long count = childCount(size);
+        if (n < 0 || (count != Long.MAX_VALUE && n >= count)) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Index %s is out of range for %s blocks of size /%s in %s.", n, count, size, this));
+        }
+
+        int shift = getBitCount() - size;
+        long offsetHigh;
+        long offsetLow;
+        if (shift >= Long.SIZE) {
+            offsetHigh = n << (shift - Long.SIZE);
+            offsetLow = 0;
+        } else {
+            offsetHigh = shift == 0 ? 0 : n >>> (Long.SIZE - shift);
+            offsetLow = n << shift;
+        }
+
+        CidrBlock base = network();
+        long sumLow = base.low + offsetLow;
+        long carry = Long.compareUnsigned(sumLow, base.low) < 0 ? 1 : 0;
+        return new CidrBlock(base.high + offsetHigh + carry, sumLow, size, ipv6);
+    }
+
+    /**
+     * Finds the index of the given block among the blocks of its size inside this block, or -1
+     * if it is not an aligned block inside this one.
+     */
+    public long childIndex(final CidrBlock child) {
+        if (!contains(child) || !child.isAligned()) {
+            return -1;
+        }
+
+        CidrBlock base = network();
+        long diffLow = child.low - base.low;
+        long borrow = Long.compareUnsigned(child.low, base.low) < 0 ? 1 : 0;
+        long diffHigh = child.high - base.high - borrow;
+
+        int shift = getBitCount() - child.prefixLength;
+        long indexHigh;
+        long indexLow;
+        if (shift >= Long.SIZE) {
+            indexHigh = 0;
+            indexLow = diffHigh >>> (shift - Long.SIZE);
+        } else if (shift == 0) {
+            indexHigh = diffHigh;
+            indexLow = diffLow;
+        } else {
+            indexHigh = diffHigh >>> shift;
+            indexLow = (diffLow >>> shift) | (diffHigh << (Long.SIZE - shift));
+        }
+
+        if (indexHigh != 0 || indexLow < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Index of %s in %s does not fit in a long.", child, this));
+        }
+        return indexLow;
+    }
+
+    @Override
+    public int compareTo(final CidrBlock other) {
+        int result = Boolean.compare(ipv6, other.ipv6);
+        if (result == 0) {
+            result = Long.compareUnsigned(high, other.high);
+        }
+        if (result == 0) {
+            result = Long.compareUnsigned(low, other.low);
+        }
+        if (result == 0) {
+            result = Integer.compare(prefixLength, other.prefixLength);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CidrBlock)) {
+            return false;
+        }
+        CidrBlock other = (CidrBlock)o;
+        return high == other.high
+                && low == other.low
+                && prefixLength == other.prefixLength
+                && ipv6 == other.ipv6;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(high);
+        result = 31 * result + Long.hashCode(low);
+        result = 31 * result + prefixLength;
+        return 31 * result + (ipv6 ? 1 : 0);
+    }
+
+    /**
+     * Formats the block in lowercase, compressing the longest run of zero groups of an IPv6
+     * address as described in RFC 5952.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(ipv6 ? 43 : 18);
+        if (ipv6) {
+            appendIpv6(builder);
+        } else {
+            appendIpv4(builder);
+        }
+        return builder.append('/').append(prefixLength).toString();
+    }
+
+    private void appendIpv4(final StringBuilder builder) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            builder.append((low >>> shift) & 0xff);
+            if (shift > 0) {
+                builder.append('.');
+            }
+        }
+    }
+
+    private void appendIpv6(final StringBuilder builder) {
+        int[] groups = new int[IPV6_GROUP_COUNT];
+        for (int i = 0; i < IPV6_GROUP_COUNT; i++) {
+            long word = i < 4 ? high : low;
+            groups[i] = (int)((word >>> (48 - 16 * (i % 4))) & 0xffff);
+        }
+
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < IPV6_GROUP_COUNT; i++) {
+            int length = 0;
+            while (i + length < IPV6_GROUP_COUNT && groups[i + length] == 0) {
+                length++;
+            }
+            if (length > bestLength) {
+                bestStart = i;
+                bestLength = length;
+            }
+            i += length;
+        }
+
+        for (int i = 0; i < IPV6_GROUP_COUNT; i++) {
+            if (i == bestStart) {
+                builder.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (i > 0 && i != bestStart + bestLength) {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[i]));
+        }
+    }
+
+    private long highMask() {
+        int bits = position(prefixLength);
+        if (bits >= Long.SIZE) {
+            return -1L;
+        }
+        return bits == 0 ? 0 : -1L << (Long.SIZE - bits);
+    }
+
+    private long lowMask() {
+        int bits = position(prefixLength) - Long.SIZE;
+        if (bits <= 0) {
+            return 0;
+        }
+        return bits == Long.SIZE ? -1L : -1L << (Long.SIZE - bits);
+    }
+
+    /**
+     * Translates a bit count within this block's family to a bit count within 128 bits.
+     */
+    private int position(final int bits) {
+        return ipv6 ? bits : bits + (IPV6_BIT_COUNT - IPV4_BIT_COUNT);
+    }
+
+    private void checkChildSize(final int size) {
+        if (size < prefixLength || size > getBitCount()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot divide %s into blocks of size /%s.", this, size));
+        }
+    }
+
+    private static void checkPrefixLength(final int prefixLength, final int bitCount) {
+        if (prefixLength < 0 || prefixLength > bitCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Prefix length /%s is not valid for a %s-bit address.", prefixLength, bitCount));
+        }
+    }
+
+    private static int parseIpv4(final String text, final String cidr) {
+        String[] octets = text.split("\\.", -1);
+        if (octets.length != 4) {
+            throw invalid(cidr);
+        }
+        int value = 0;
+        for (String octet : octets) {
+            value = (value << 8) | parseDecimal(octet, 255, cidr);
+        }
+        return value;
+    }
+
+    private static long[] parseIpv6(final String text, final String cidr) {
+        int doubleColon = text.indexOf("::");
+        if (doubleColon >= 0 && (text.indexOf("::", doubleColon + 1) >= 0 || text.lastIndexOf('.', doubleColon) >= 0)) {
+            throw invalid(cidr);
+        }
+
+        int[] head = parseIpv6Groups(doubleColon < 0 ? text : text.substring(0, doubleColon), cidr);
+        int[] tail = doubleColon < 0 ? new int[0] : parseIpv6Groups(text.substring(doubleColon + 2), cidr);
+        int total = head.length + tail.length;
+        if ((doubleColon < 0 && total != IPV6_GROUP_COUNT) || (doubleColon >= 0 && total >= IPV6_GROUP_COUNT)) {
+            throw invalid(cidr);
+        }
+
+        int[] groups = new int[IPV6_GROUP_COUNT];
+        System.arraycopy(head, 0, groups, 0, head.length);
+        System.arraycopy(tail, 0, groups, IPV6_GROUP_COUNT - tail.length, tail.length);
+
+        long[] value = new long[2];
+        for (int i = 0; i < IPV6_GROUP_COUNT; i++) {
+            value[i / 4] = (value[i / 4] << 16) | groups[i];
+        }
+        return value;
+    }
+
+    private static int[] parseIpv6Groups(final String text, final String cidr) {
+        if (text.isEmpty()) {
+            return new int[0];
+        }
+
+        String[] parts = text.split(":", -1);
+        String last = parts[parts.length - 1];
+        boolean embeddedIpv4 = last.indexOf('.') >= 0;
+        int[] groups = new int[parts.length + (embeddedIpv4 ? 1 : 0)];
+
+        for (int i = 0; i < parts.length - (embeddedIpv4 ? 1 : 0); i++) {
+            String part = parts[i];
+            if (!isHexGroup(part)) {
+                throw invalid(cidr);
+            }
+            groups[i] = Integer.parseInt(part, 16);
+        }
+        if (embeddedIpv4) {
+            int ipv4 = parseIpv4(last, cidr);
+            groups[groups.length - 2] = ipv4 >>> 16;
+            groups[groups.length - 1] = ipv4 & 0xffff;
+        }
+        return groups;
+    }
+
+    /**
+     * Whether the text is one to four hex digits; {@link Integer#parseInt(String, int)} alone
+     * would also take a sign.
+     */
+    private static boolean isHexGroup(final String text) {
+        if (text.isEmpty() || text.length() > 4) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f') && !(c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseDecimal(final String text, final int max, final String cidr) {
+        if (text.isEmpty() || text.length() > 3) {
+            throw invalid(cidr);
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                throw invalid(cidr);
+            }
+        }
+        int value = Integer.parseInt(text);
+        if (value > max) {
+            throw invalid(cidr);
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalid(final String cidr) {
+        return new IllegalArgumentException(String.format("'%s' is not a valid CIDR block.", cidr));
+    }
+}
@@ -0,0 +1,77 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import java.util.Arrays;
+
+/**
+ * How a new subnet's index is chosen among the free ones in the VPC block.
+ */
+public enum IndexPlacement {
+
+    /**
+     * The lowest free index. Concurrent creates all aim for the same slot, so they have to check
+     * for collisions before associating.
+     */
+    FIRST_FIT("FirstFit", true),
+
+    /**
+     * Probes from a slot derived from the subnet ID. Different subnets rarely start on the same
+     * slot, and a recreated subnet tends to get its old block back.
+     */
+    SUBNET_ID_HASH("SubnetIdHash", false),
+
+    /**
+     * Probes from a slot derived from the availability zone, which keeps each zone's subnets
+     * close together. Subnets in one zone start on the same slot, so they still check for
+     * collisions.
+     */
+    AVAILABILITY_ZONE_HASH("AvailabilityZoneHash", true);
+
+    private final String value;
+    private final boolean contended;
+
+    IndexPlacement(final String value, final boolean contended) {
+        this.value = value;
+        this.contended = contended;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Whether concurrent creates are likely enough to pick the same index that the reservation
+     * should be confirmed before associating.
+     */
+    public boolean isContended() {
+        return contended;
+    }
+
+    /**
+     * The index to start probing from for the given key, spread evenly over the capacity.
+     * {@link String#hashCode()} is specified by the language, so the result is the same on
+     * every JVM.
+     */
+    public static int startIndex(final String key, final int capacity) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, capacity);
+    }
+
+    /**
+     * Parses the schema value, defaulting to {@link #FIRST_FIT} when it is not set.
+     */
+    public static IndexPlacement fromValue(final String value) {
+        if (value == null) {
+            return FIRST_FIT;
+        }
+        return Arrays.stream(values())
+                .filter(placement -> placement.value.equals(value))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(String.format(
+                        "Unknown index placement '%s'.", value)));
+    }
+}
@@ -0,0 +1,117 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+/**
+ * Treats all IPv6 blocks of a VPC as one pool of same-sized subnet blocks. Each VPC block keeps
+ * its own {@link SubnetIndexAllocator}, so indexes stay relative to the VPC block they were taken
+ * from, and the blocks are searched in the order given.
+ */
+public class SubnetBlockPool {
+
+    private final int cidrSize;
+    private final List<SubnetIndexAllocator> allocators;
+
+    public SubnetBlockPool(final List<CidrBlock> vpcBlocks, final int cidrSize) {
+        if (vpcBlocks.isEmpty()) {
+            throw new IllegalArgumentException("A subnet block pool needs at least one VPC block.");
+        }
+        this.cidrSize = cidrSize;
+        List<SubnetIndexAllocator> allocators = new ArrayList<>(vpcBlocks.size());
+        for (CidrBlock vpcBlock : vpcBlocks) {
+            allocators.add(new SubnetIndexAllocator(vpcBlock, cidrSize));
+        }
+        this.allocators = Collections.unmodifiableList(allocators);
+    }
+
+    public int getCidrSize() {
+        return cidrSize;
+    }
+
+    public List<SubnetIndexAllocator> getAllocators() {
+        return allocators;
+    }
+
+    public long getCapacity() {
+        return allocators.stream().mapToLong(SubnetIndexAllocator::getCapacity).sum();
+    }
+
+    public long getUsedCount() {
+        return allocators.stream().mapToLong(SubnetIndexAllocator::getUsedCount).sum();
+    }
+
+    /**
+     * The allocator of the given VPC block, if it is part of the pool.
+     */
+    public Optional<SubnetIndexAllocator> allocatorFor(final CidrBlock vpcBlock) {
+        return allocators.stream()
+                .filter(allocator -> allocator.getVpcBlock().equals(vpcBlock))
+                .findFirst();
+    }
+
+    /**
+     * The allocator of the VPC block that contains the given block, if any does.
+     */
+    public Optional<SubnetIndexAllocator> allocatorContaining(final CidrBlock block) {
+        return allocators.stream()
+                .filter(allocator -> allocator.getVpcBlock().contains(block))
+                .findFirst();
+    }
+
+    /**
+     * Marks every index the block overlaps, in whichever VPC block it falls.
+     */
+    public void markUsed(final CidrBlock block) {
+        for (SubnetIndexAllocator allocator : allocators) {
+            allocator.markUsed(block);
+        }
+    }
+
+    /**
+     * Finds a free index in the first VPC block that has one, probing each block from the index
+     * {@code start} picks for it. Fails fast when every block is full.
+     */
+    public Slot nextFreeSlot(final ToIntFunction<SubnetIndexAllocator> start) {
+        for (SubnetIndexAllocator allocator : allocators) {
+            if (allocator.getUsedCount() < allocator.getCapacity()) {
+                int index = allocator.nextFreeIndexFrom(start.applyAsInt(allocator));
+                return new Slot(allocator.getVpcBlock(), index, allocator.getVpcBlock().nthChild(cidrSize, index));
+            }
+        }
+        throw new IllegalStateException(String.format(
+                "All %s blocks of size /%s in the %s IPv6 blocks of the VPC are already in use.",
+                getCapacity(), cidrSize, allocators.size()));
+    }
+
+    /**
+     * A free block, along with the VPC block it was taken from and its index within it.
+     */
+    public static final class Slot {
+
+        private final CidrBlock vpcBlock;
+        private final int index;
+        private final CidrBlock block;
+
+        Slot(final CidrBlock vpcBlock, final int index, final CidrBlock block) {
+            this.vpcBlock = vpcBlock;
+            this.index = index;
+            this.block = block;
+        }
+
+        public CidrBlock getVpcBlock() {
+            return vpcBlock;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public CidrBlock getBlock() {
+            return block;
+        }
+    }
+}
@@ -1,53 +1,122 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
-
-import inet.ipaddr.IPAddress;
-import inet.ipaddr.IPAddressString;
-import inet.ipaddr.ipv4.IPv4Address;
-import inet.ipaddr.ipv6.IPv6Address;
-import inet.ipaddr.ipv6.IPv6AddressNetwork;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SubnetDivider {
 
-    private final String bigCidr;
+    private final CidrBlock bigBlock;
 
     public SubnetDivider(final String bigCidr) {
-        this.bigCidr = bigCidr;
-        parseAddress(bigCidr);
+        this(CidrBlock.parse(bigCidr));
+    }
+
+    public SubnetDivider(final CidrBlock bigBlock) {
+        this.bigBlock = bigBlock;
+    }
+
+    public CidrBlock getBigBlock() {
+        return bigBlock;
     }
 
     public List<String> smallCidrs(final int size) {
-        IPAddress address = parseAddress(bigCidr);
-        IPAddress newSubnets = address.setPrefixLength(size, false);
-        TreeSet<IPAddress> subnetSet = new TreeSet<>();
+        return streamSmallCidrs(size).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns at most {@code limit} blocks of the given size, starting with the block at
+     * {@code offset}. Only the requested page is ever materialized.
+     */
+    public List<String> smallCidrs(final int size, final int offset, final int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Offset (%s) and limit (%s) must not be negative.", offset, limit));
+        }
 
-        Iterator<? extends IPAddress> iterator = newSubnets.prefixBlockIterator();
+        long addressableCount = Math.min(bigBlock.childCount(size), Integer.MAX_VALUE + 1L);
+        int pageSize = (int)Math.max(0, Math.min(limit, addressableCount - offset));
 
-        while (iterator.hasNext()) {
-            subnetSet.add((IPAddress)iterator.next());
+        List<String> page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(nthSmallCidr(size, offset + i));
         }
-        return subnetSet.stream()
-                .map(IPAddress::toCompressedString)
-                .map(String::toLowerCase)
-                .collect(Collectors.toList());
+        return page;
+    }
+
+    /**
+     * Lazily produces the blocks of the given size in ascending order, without holding them
+     * all in memory.
+     */
+    public Iterator<String> smallCidrIterator(final int size) {
+        long blockCount = bigBlock.childCount(size);
+        return new Iterator<String>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < blockCount;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return bigBlock.nthChild(size, next++).toString();
+            }
+        };
     }
 
+    public Stream<String> streamSmallCidrs(final int size) {
+        Spliterator<String> spliterator = Spliterators.spliteratorUnknownSize(
+                smallCidrIterator(size),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Finds the index of the given block among the blocks of the given size, or -1 if it is
+     * not one of them. Any textual form of the address is accepted.
+     */
     public int rangeIndexOf(final String smallRange, final int size) {
-        List<String> smallCidrs = smallCidrs(size);
-        return smallCidrs.indexOf(smallRange.toLowerCase());
+        CidrBlock smallBlock;
+        try {
+            smallBlock = CidrBlock.parse(smallRange);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+        return rangeIndexOf(smallBlock, size);
+    }
+
+    public int rangeIndexOf(final CidrBlock smallBlock, final int size) {
+        if (smallBlock.getPrefixLength() != size) {
+            return -1;
+        }
+
+        long index = bigBlock.childIndex(smallBlock);
+        if (index > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Index of %s in %s does not fit in an int.", smallBlock, bigBlock));
+        }
+        return (int)index;
     }
 
+    /**
+     * Computes the n-th block of the given size directly from the value of the big CIDR,
+     * rather than enumerating every block that precedes it.
+     */
     public String nthSmallCidr(final int size, final int n) {
-        List<String> smallCidrs = smallCidrs(size);
-        return smallCidrs.get(n);
+        return nthSmallBlock(size, n).toString();
     }
 
-    protected static IPAddress parseAddress(String cidr) {
-        IPAddressString addressString = new IPAddressString(cidr);
-        return addressString.getAddress();
+    public CidrBlock nthSmallBlock(final int size, final int n) {
+        return bigBlock.nthChild(size, n);
     }
 }
@@ -0,0 +1,125 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import java.util.BitSet;
+
+/**
+ * Tracks which blocks of a given size inside a VPC block are in use, and finds the first free
+ * one with {@link BitSet#nextClearBit(int)}.
+ */
+public class SubnetIndexAllocator {
+
+    /**
+     * The most blocks one VPC block may be split into, which keeps the bitmap at 8 KB. A /48
+     * split into /64s is right at the limit; anything finer is rejected rather than tracked.
+     */
+    public static final int MAX_CAPACITY = 1 << 16;
+
+    private final CidrBlock vpcBlock;
+    private final int cidrSize;
+    private final int capacity;
+    private final BitSet usedIndexes;
+
+    public SubnetIndexAllocator(final CidrBlock vpcBlock, final int cidrSize) {
+        this.vpcBlock = vpcBlock;
+        this.cidrSize = cidrSize;
+        long childCount = vpcBlock.childCount(cidrSize);
+        if (childCount > MAX_CAPACITY) {
+            throw new IllegalArgumentException(String.format(
+                    "%s holds %s blocks of size /%s, more than the %s a subnet index can address.",
+                    vpcBlock, childCount, cidrSize, MAX_CAPACITY));
+        }
+        this.capacity = (int)childCount;
+        this.usedIndexes = new BitSet(capacity);
+    }
+
+    public CidrBlock getVpcBlock() {
+        return vpcBlock;
+    }
+
+    public int getCidrSize() {
+        return cidrSize;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getUsedCount() {
+        return usedIndexes.cardinality();
+    }
+
+    public boolean fits(final int index) {
+        return index >= 0 && index < capacity;
+    }
+
+    public void validateIndex(final int index) {
+        if (!fits(index)) {
+            throw new IllegalArgumentException(String.format(
+                    "Subnet index %s does not fit in %s, which only holds %s blocks of size /%s.",
+                    index, vpcBlock, capacity, cidrSize));
+        }
+    }
+
+    public boolean isUsed(final int index) {
+        return usedIndexes.get(index);
+    }
+
+    public void markUsed(final int index) {
+        validateIndex(index);
+        usedIndexes.set(index);
+    }
+
+    /**
+     * Marks every index whose block overlaps the given block. Blocks outside the VPC block are
+     * ignored.
+     */
+    public void markUsed(final CidrBlock block) {
+        if (!vpcBlock.overlaps(block)) {
+            return;
+        }
+        if (block.contains(vpcBlock)) {
+            usedIndexes.set(0, capacity);
+            return;
+        }
+
+        if (block.getPrefixLength() >= cidrSize) {
+            long index = vpcBlock.childIndex(block.withPrefixLength(cidrSize).network());
+            if (index < capacity) {
+                usedIndexes.set((int)index);
+            }
+            return;
+        }
+
+        // The block sits strictly inside the VPC block here, so it spans fewer than capacity
+        // indexes and the shift cannot overflow.
+        long span = 1L << (cidrSize - block.getPrefixLength());
+        long first = vpcBlock.childIndex(block.network()) * span;
+        if (first >= 0 && first < capacity) {
+            usedIndexes.set((int)first, (int)Math.min(first + span, capacity));
+        }
+    }
+
+    /**
+     * Finds the lowest free index, failing fast when the VPC block has no room left.
+     */
+    public int nextFreeIndex() {
+        return nextFreeIndexFrom(0);
+    }
+
+    /**
+     * Finds the first free index at or after {@code start}, wrapping around to the beginning of
+     * the VPC block, and failing fast when it has no room left.
+     */
+    public int nextFreeIndexFrom(final int start) {
+        validateIndex(start);
+        int index = usedIndexes.nextClearBit(start);
+        if (index >= capacity) {
+            index = usedIndexes.nextClearBit(0);
+        }
+        if (index >= capacity) {
+            throw new IllegalStateException(String.format(
+                    "All %s blocks of size /%s in %s are already in use.", capacity, cidrSize, vpcBlock));
+        }
+        return index;
+    }
+}
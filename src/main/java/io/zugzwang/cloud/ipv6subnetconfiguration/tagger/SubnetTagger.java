@@ -2,25 +2,46 @@ package io.zugzwang.cloud.ipv6subnetconfiguration.tagger;
 
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public class SubnetTagger {
 
     public static final String SUBNET_INDEX = "zugzwang:subnet-index";
 
+    /**
+     * The VPC IPv6 block the subnet index counts from. Subnets tagged before VPCs could have
+     * several blocks do not carry it, and their index counts from the VPC's first block.
+     */
+    public static final String VPC_BLOCK = "zugzwang:vpc-ipv6-block";
+
+    static final int MAX_RESOURCES_PER_REQUEST = 1000;
+
     private final AmazonEC2 ec2;
-    private final AmazonWebServicesClientProxy clientProxy;
+    private final RetryingInvoker invoker;
 
     public SubnetTagger(
             final AmazonEC2 ec2,
             final AmazonWebServicesClientProxy clientProxy) {
+        this(ec2, new RetryingInvoker(clientProxy));
+    }
+
+    public SubnetTagger(
+            final AmazonEC2 ec2,
+            final RetryingInvoker invoker) {
         this.ec2 = ec2;
-        this.clientProxy = clientProxy;
+        this.invoker = invoker;
     }
 
     public void tagSubnet(String subnetId, int allocationIndex) {
@@ -28,7 +49,73 @@ public class SubnetTagger {
         request.setResources(Collections.singletonList(subnetId));
         request.setTags(Collections.singletonList(new Tag(SUBNET_INDEX, Integer.toString(allocationIndex))));
 
-        clientProxy.injectCredentialsAndInvoke(request, ec2::createTags);
+        invoker.invoke(request, ec2::createTags);
+    }
+
+    /**
+     * Tags the subnet with its index and the VPC block that index belongs to, in one call.
+     */
+    public void tagSubnet(String subnetId, int allocationIndex, CidrBlock vpcBlock) {
+        CreateTagsRequest request = new CreateTagsRequest();
+        request.setResources(Collections.singletonList(subnetId));
+        request.setTags(Arrays.asList(
+                new Tag(SUBNET_INDEX, Integer.toString(allocationIndex)),
+                new Tag(VPC_BLOCK, vpcBlock.toString())));
+
+        invoker.invoke(request, ec2::createTags);
+    }
+
+    /**
+     * Tags many subnets at once, sending one CreateTags call per distinct index (and per chunk
+     * of at most {@value #MAX_RESOURCES_PER_REQUEST} subnets).
+     */
+    public void tagSubnets(Map<String, Integer> allocationIndexes) {
+        Map<Integer, List<String>> subnetsByIndex = allocationIndexes.entrySet().stream()
+                .collect(Collectors.groupingBy(
+                        Map.Entry::getValue,
+                        TreeMap::new,
+                        Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+
+        for (Map.Entry<Integer, List<String>> entry : subnetsByIndex.entrySet()) {
+            Tag tag = new Tag(SUBNET_INDEX, Integer.toString(entry.getKey()));
+            for (List<String> chunk : chunk(entry.getValue())) {
+                CreateTagsRequest request = new CreateTagsRequest();
+                request.setResources(chunk);
+                request.setTags(Collections.singletonList(tag));
+
+                invoker.invoke(request, ec2::createTags);
+            }
+        }
+    }
+
+    /**
+     * Removes the index and VPC block tags from many subnets without describing them first;
+     * DeleteTags with only a key removes the tag whatever its value.
+     */
+    public void untagSubnets(Collection<String> subnetIds) {
+        List<Tag> tags = Arrays.asList(new Tag().withKey(SUBNET_INDEX), new Tag().withKey(VPC_BLOCK));
+        for (List<String> chunk : chunk(new ArrayList<>(subnetIds))) {
+            DeleteTagsRequest request = new DeleteTagsRequest();
+            request.setResources(chunk);
+            request.setTags(tags);
+
+            invoker.invoke(request, ec2::deleteTags);
+        }
+    }
+
+    /**
+     * Removes the index tag from subnets the caller has already described, skipping the ones
+     * that do not carry it.
+     */
+    public void untagLoadedSubnets(Collection<Subnet> subnets) {
+        List<String> taggedSubnetIds = subnets.stream()
+                .filter(SubnetTagger::hasSubnetIndexTag)
+                .map(Subnet::getSubnetId)
+                .collect(Collectors.toList());
+
+        if (!taggedSubnetIds.isEmpty()) {
+            untagSubnets(taggedSubnetIds);
+        }
     }
 
     public void untagSubnet(String subnetId) {
@@ -36,7 +123,7 @@ public class SubnetTagger {
         DescribeSubnetsRequest describeRequest = new DescribeSubnetsRequest();
         describeRequest.setSubnetIds(Collections.singletonList(subnetId));
 
-        DescribeSubnetsResult describeResult = clientProxy.injectCredentialsAndInvoke(describeRequest, ec2::describeSubnets);
+        DescribeSubnetsResult describeResult = invoker.invoke(describeRequest, ec2::describeSubnets);
 
         if (describeResult.getSubnets() == null || describeResult.getSubnets().size() == 0) {
             // Intentional no-op
@@ -47,18 +134,23 @@ public class SubnetTagger {
             Subnet subnet = describeResult.getSubnets().get(0);
             DeleteTagsRequest request = new DeleteTagsRequest();
             List<Tag> matchingTags = subnet.getTags().stream()
-                    .filter(tag -> tag.getKey().equals(SUBNET_INDEX))
+                    .filter(tag -> tag.getKey().equals(SUBNET_INDEX) || tag.getKey().equals(VPC_BLOCK))
                     .collect(Collectors.toList());
 
             request.setResources(Collections.singletonList(subnetId));
             request.setTags(matchingTags);
 
-            clientProxy.injectCredentialsAndInvoke(request, ec2::deleteTags);
+            invoker.invoke(request, ec2::deleteTags);
         } catch (Throwable t) {
             // Intentional no-op
         }
     }
 
+    public static boolean hasSubnetIndexTag(Subnet subnet) {
+        return subnet.getTags() != null && subnet.getTags().stream()
+                .anyMatch(tag -> tag.getKey().equals(SUBNET_INDEX));
+    }
+
     public static Optional<Integer> getSubnetIndexFromTag(Subnet subnet) {
         if (subnet.getTags() == null) {
             return Optional.empty();
@@ -88,4 +180,36 @@ public class SubnetTagger {
         }
         return Optional.of(subnetIndex);
     }
+
+    /**
+     * The VPC block the subnet's index tag counts from, if the subnet records one.
+     */
+    public static Optional<CidrBlock> getVpcBlockFromTag(Subnet subnet) {
+        if (subnet.getTags() == null) {
+            return Optional.empty();
+        }
+
+        Optional<Tag> blockTag = subnet.getTags().stream()
+                .filter(tag -> tag.getKey().equals(VPC_BLOCK))
+                .findFirst();
+        if (!blockTag.isPresent()) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(CidrBlock.parse(blockTag.get().getValue()));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(String.format(
+                    "Provided subnet had a VPC block tag with an illegal value ('%s').",
+                    blockTag.get().getValue()));
+        }
+    }
+
+    private static List<List<String>> chunk(List<String> resources) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int i = 0; i < resources.size(); i += MAX_RESOURCES_PER_REQUEST) {
+            chunks.add(resources.subList(i, Math.min(i + MAX_RESOURCES_PER_REQUEST, resources.size())));
+        }
+        return chunks;
+    }
 }
@@ -0,0 +1,107 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.CreateRouteRequest;
+import com.amazonaws.services.ec2.model.CreateRouteResult;
+import com.amazonaws.services.ec2.model.ReplaceRouteRequest;
+import com.amazonaws.services.ec2.model.ReplaceRouteResult;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DefaultRouteManagerTest {
+
+    @Test
+    public void createReplacesAnExistingRoute() {
+        FakeEc2 ec2 = new FakeEc2(3);
+        String routeTableId = routeTable(ec2);
+        DefaultRouteManager routes = manager(ec2);
+        routes.createDefaultRoute(routeTableId, "eigw-old");
+
+        routes.createDefaultRoute(routeTableId, "eigw-new");
+
+        assertThat(ec2.ipv6Routes(routeTableId)).containsEntry("::/0", "eigw-new");
+        assertThat(ec2.errorCount("RouteAlreadyExists")).isEqualTo(1);
+        assertThat(ec2.callCount("CreateRoute")).isEqualTo(2);
+        assertThat(ec2.callCount("ReplaceRoute")).isEqualTo(1);
+    }
+
+    @Test
+    public void replaceCreatesAMissingRoute() {
+        FakeEc2 ec2 = new FakeEc2(3);
+        String routeTableId = routeTable(ec2);
+
+        manager(ec2).replaceDefaultRoute(routeTableId, "eigw-new");
+
+        assertThat(ec2.ipv6Routes(routeTableId)).containsEntry("::/0", "eigw-new");
+        assertThat(ec2.errorCount("InvalidRoute.NotFound")).isEqualTo(1);
+        assertThat(ec2.callCount("ReplaceRoute")).isEqualTo(1);
+        assertThat(ec2.callCount("CreateRoute")).isEqualTo(1);
+    }
+
+    @Test
+    public void fallsBackOnlyOnce() {
+        FlappingRouteEc2 ec2 = new FlappingRouteEc2();
+        String routeTableId = routeTable(ec2);
+        DefaultRouteManager routes = manager(ec2);
+
+        assertThatThrownBy(() -> routes.createDefaultRoute(routeTableId, "eigw-new"))
+                .isInstanceOf(AmazonServiceException.class)
+                .hasFieldOrPropertyWithValue("errorCode", "InvalidRoute.NotFound");
+        assertThat(ec2.creates).isEqualTo(1);
+        assertThat(ec2.replaces).isEqualTo(1);
+
+        assertThatThrownBy(() -> routes.replaceDefaultRoute(routeTableId, "eigw-new"))
+                .isInstanceOf(AmazonServiceException.class)
+                .hasFieldOrPropertyWithValue("errorCode", "RouteAlreadyExists");
+        assertThat(ec2.creates).isEqualTo(2);
+        assertThat(ec2.replaces).isEqualTo(2);
+    }
+
+    private static String routeTable(FakeEc2 ec2) {
+        String vpcId = ec2.createVpc("2600:1f18:abcd:1200::/56");
+        return ec2.createRouteTable(vpcId, ec2.createSubnet(vpcId, "us-east-1a"));
+    }
+
+    private static DefaultRouteManager manager(FakeEc2 ec2) {
+        HandlerDriver driver = new HandlerDriver(ec2);
+        return new DefaultRouteManager(ec2, new RetryingInvoker(driver.getProxy()), driver.getLogger());
+    }
+
+    /**
+     * A route that is added and removed as fast as it is looked at, so every create finds it
+     * and every replace misses it.
+     */
+    private static final class FlappingRouteEc2 extends FakeEc2 {
+
+        private int creates;
+        private int replaces;
+
+        FlappingRouteEc2() {
+            super(3);
+        }
+
+        @Override
+        public CreateRouteResult createRoute(final CreateRouteRequest request) {
+            creates++;
+            throw error("RouteAlreadyExists");
+        }
+
+        @Override
+        public ReplaceRouteResult replaceRoute(final ReplaceRouteRequest request) {
+            replaces++;
+            throw error("InvalidRoute.NotFound");
+        }
+
+        private static AmazonServiceException error(final String errorCode) {
+            AmazonServiceException ex = new AmazonServiceException(errorCode);
+            ex.setErrorCode(errorCode);
+            ex.setErrorType(AmazonServiceException.ErrorType.Client);
+            ex.setStatusCode(400);
+            return ex;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.DisassociateSubnetCidrBlockRequest;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeleteHandlerTest {
+
+    private static final String VPC_CIDR = "2600:1f18:abcd:1200::/56";
+
+    private FakeEc2 ec2;
+    private HandlerDriver driver;
+    private String vpcId;
+    private String gatewayId;
+
+    @BeforeEach
+    public void setup() {
+        ec2 = new FakeEc2(17);
+        driver = new HandlerDriver(ec2);
+
+        vpcId = ec2.createVpc(VPC_CIDR);
+        gatewayId = ec2.createEgressOnlyInternetGateway();
+    }
+
+    @Test
+    public void deleteReleasesTheSubnet() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        ResourceModel created = create(subnetId, ec2.createRouteTable(vpcId, subnetId));
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.delete(created);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(ec2.activeBlocks(subnetId)).isEmpty();
+        assertThat(ec2.tags(subnetId)).isEmpty();
+        assertThat(ec2.ipv6Routes(created.getRouteTableId())).doesNotContainKey("::/0");
+    }
+
+    @Test
+    public void retriedDeleteOfAReleasedSubnetSucceeds() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        ResourceModel created = create(subnetId, ec2.createRouteTable(vpcId, subnetId));
+        assertThat(driver.delete(created).getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        Map<String, Integer> before = ec2.callCounts();
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.delete(created);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(callsSince(before, "DisassociateSubnetCidrBlock")).isZero();
+        assertThat(callsSince(before, "DeleteRoute")).isZero();
+    }
+
+    @Test
+    public void routeInTheMainTableIsKept() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        ResourceModel created = create(subnetId, ec2.mainRouteTable(vpcId));
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.delete(created);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(ec2.activeBlocks(subnetId)).isEmpty();
+        assertThat(ec2.ipv6Routes(created.getRouteTableId())).containsEntry("::/0", gatewayId);
+        assertThat(ec2.callCount("DeleteRoute")).isZero();
+    }
+
+    @Test
+    public void routeInASharedTableIsKept() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        String routeTableId = ec2.createRouteTable(vpcId, subnetId);
+        ec2.associateRouteTable(routeTableId, ec2.createSubnet(vpcId, "us-east-1b"));
+        ResourceModel created = create(subnetId, routeTableId);
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.delete(created);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(ec2.activeBlocks(subnetId)).isEmpty();
+        assertThat(ec2.ipv6Routes(routeTableId)).containsEntry("::/0", gatewayId);
+        assertThat(ec2.callCount("DeleteRoute")).isZero();
+    }
+
+    @Test
+    public void pendingDisassociationIsWaitedOn() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        ResourceModel created = create(subnetId, ec2.createRouteTable(vpcId, subnetId));
+        // An earlier attempt that timed out after asking for the block to be released.
+        ec2.disassociateSubnetCidrBlock(new DisassociateSubnetCidrBlockRequest()
+                .withAssociationId(created.getSubnetIPv6CidrAssociationId()));
+        Map<String, Integer> before = ec2.callCounts();
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.delete(created);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(callsSince(before, "DisassociateSubnetCidrBlock")).isZero();
+        assertThat(ec2.activeBlocks(subnetId)).isEmpty();
+        assertThat(ec2.tags(subnetId)).isEmpty();
+    }
+
+    private ResourceModel create(String subnetId, String routeTableId) {
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.create(ResourceModel.builder()
+                .subnetId(subnetId)
+                .cidrSize(64)
+                .routeTableId(routeTableId)
+                .egressOnlyInternetGatewayId(gatewayId)
+                .build());
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        return result.getResourceModel();
+    }
+
+    private int callsSince(Map<String, Integer> before, String operation) {
+        return ec2.callCount(operation) - before.getOrDefault(operation, 0);
+    }
+}
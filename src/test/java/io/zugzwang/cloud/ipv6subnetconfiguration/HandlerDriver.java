@@ -0,0 +1,119 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.VpcTopologyCache;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs single handlers against a {@link FakeEc2}, following callbacks without waiting until the
+ * handler finishes.
+ */
+final class HandlerDriver {
+
+    static final String REGION = "driver-east-1";
+
+    private static final int MAX_CALLBACKS = 500;
+
+    private final AmazonWebServicesClientProxy proxy;
+    private final Logger logger;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HandlerDriver(final FakeEc2 ec2) {
+        ClientBuilder.registerEc2Client(REGION, ec2);
+        // Every fake numbers its VPCs from one, so snapshots cached by an earlier test would match.
+        VpcTopologyCache.shared().clear();
+
+        proxy = mock(AmazonWebServicesClientProxy.class, withSettings().stubOnly());
+        when(proxy.injectCredentialsAndInvoke(any(AmazonWebServiceRequest.class), any(Function.class)))
+                .thenAnswer(invocationOnMock -> {
+                    Function func = invocationOnMock.getArgument(1);
+                    AmazonWebServiceRequest request = invocationOnMock.getArgument(0);
+                    return func.apply(request);
+                });
+        logger = mock(Logger.class, withSettings().stubOnly());
+    }
+
+    AmazonWebServicesClientProxy getProxy() {
+        return proxy;
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+
+    ProgressEvent<ResourceModel, CallbackContext> create(final ResourceModel model) {
+        return drive(new CreateHandler(), request(copy(model), null));
+    }
+
+    ProgressEvent<ResourceModel, CallbackContext> update(final ResourceModel previous, final ResourceModel desired) {
+        return drive(new UpdateHandler(), request(copy(desired), copy(previous)));
+    }
+
+    ProgressEvent<ResourceModel, CallbackContext> read(final ResourceModel model) {
+        return drive(new ReadHandler(), request(copy(model), null));
+    }
+
+    ProgressEvent<ResourceModel, CallbackContext> delete(final ResourceModel model) {
+        return drive(new DeleteHandler(), request(copy(model), null));
+    }
+
+    ProgressEvent<ResourceModel, CallbackContext> list(final String nextToken) {
+        return drive(new ListHandler(), ResourceHandlerRequest.<ResourceModel>builder()
+                .region(REGION)
+                .nextToken(nextToken)
+                .build());
+    }
+
+    /**
+     * Hands the handler its own callback context back until it stops asking for callbacks.
+     */
+    ProgressEvent<ResourceModel, CallbackContext> drive(
+            final BaseHandler<CallbackContext> handler,
+            final ResourceHandlerRequest<ResourceModel> request) {
+
+        CallbackContext context = null;
+        ProgressEvent<ResourceModel, CallbackContext> event;
+        int callbacks = 0;
+        do {
+            event = handler.handleRequest(proxy, request, context, logger);
+            context = event.getCallbackContext();
+        } while (event.getStatus() == OperationStatus.IN_PROGRESS && ++callbacks < MAX_CALLBACKS);
+        return event;
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> request(final ResourceModel desired, final ResourceModel previous) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(desired)
+                .previousResourceState(previous)
+                .region(REGION)
+                .build();
+    }
+
+    /**
+     * Handlers fill in the model they are given, so every run gets its own copy.
+     */
+    static ResourceModel copy(final ResourceModel model) {
+        return ResourceModel.builder()
+                .subnetId(model.getSubnetId())
+                .cidrSize(model.getCidrSize())
+                .egressOnlyInternetGatewayId(model.getEgressOnlyInternetGatewayId())
+                .routeTableId(model.getRouteTableId())
+                .indexPlacement(model.getIndexPlacement())
+                .vpcIPv6Cidr(model.getVpcIPv6Cidr())
+                .subnetIPv6CidrAssociationId(model.getSubnetIPv6CidrAssociationId())
+                .subnetIPv6Cidr(model.getSubnetIPv6Cidr())
+                .build();
+    }
+}
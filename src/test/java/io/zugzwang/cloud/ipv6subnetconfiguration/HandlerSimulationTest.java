@@ -0,0 +1,270 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import io.zugzwang.cloud.ipv6subnetconfiguration.info.VpcTopologyCache;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Drives the handlers end to end against {@link FakeEc2}, running many resources in one VPC
+ * side by side. Callback delays are skipped, which makes collisions more likely than in a real
+ * deployment. Every scenario also checks its API call budget, throttle share and throughput, so
+ * a change that makes the handlers chattier or slower fails here.
+ */
+public class HandlerSimulationTest {
+
+    private static final String REGION = "sim-east-1";
+    private static final int SUBNET_COUNT = Integer.getInteger("simulation.subnets", 64);
+    private static final int THREADS = Integer.getInteger("simulation.threads", 8);
+    private static final int MAX_CALLBACKS = 500;
+
+    /**
+     * Upper bounds on EC2 calls per handler run, with room for reservation retries and rescans.
+     */
+    private static final int MAX_CALLS_PER_CREATE = 80;
+    private static final int MAX_CALLS_PER_DELETE = 15;
+
+    /**
+     * The fake answers instantly, so anything slower than this points at the handlers.
+     */
+    private static final double MIN_RESOURCES_PER_SECOND = 10;
+
+    private FakeEc2 ec2;
+    private AmazonWebServicesClientProxy proxy;
+    private Logger logger;
+
+    private String gatewayId;
+    private List<ResourceModel> models;
+
+    @BeforeEach @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        ec2 = new FakeEc2(42)
+                .withPageSize(5)
+                .withThrottleRate(0.01)
+                .withTransitionDescribes(2);
+        ClientBuilder.registerEc2Client(REGION, ec2);
+        // Every fake numbers its VPCs from one, so snapshots cached by an earlier test would match.
+        VpcTopologyCache.shared().clear();
+
+        proxy = mock(AmazonWebServicesClientProxy.class, withSettings().stubOnly());
+        when(proxy.injectCredentialsAndInvoke(any(AmazonWebServiceRequest.class), any(Function.class)))
+                .thenAnswer(invocationOnMock -> {
+                    Function func = invocationOnMock.getArgument(1);
+                    AmazonWebServiceRequest request = invocationOnMock.getArgument(0);
+                    return func.apply(request);
+                });
+        logger = mock(Logger.class, withSettings().stubOnly());
+
+        String vpcId = ec2.createVpc("2600:1f18:abcd:1200::/56");
+        gatewayId = ec2.createEgressOnlyInternetGateway();
+        models = createModels(vpcId, SUBNET_COUNT);
+    }
+
+    @Test
+    public void parallelCreatesGetDistinctBlocks() throws Exception {
+        long start = System.nanoTime();
+        List<ProgressEvent<ResourceModel, CallbackContext>> results = createAll(null);
+        assertWithinBudget(start, models.size(), MAX_CALLS_PER_CREATE);
+
+        Set<String> blocks = new HashSet<>();
+        for (int i = 0; i < models.size(); i++) {
+            ProgressEvent<ResourceModel, CallbackContext> result = results.get(i);
+            String subnetId = models.get(i).getSubnetId();
+
+            assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+            assertThat(ec2.activeBlock(subnetId)).contains(result.getResourceModel().getSubnetIPv6Cidr());
+            assertThat(ec2.ipv6Routes(models.get(i).getRouteTableId())).containsEntry("::/0", gatewayId);
+            blocks.add(result.getResourceModel().getSubnetIPv6Cidr());
+        }
+        assertThat(blocks).hasSize(models.size());
+    }
+
+    @Test
+    public void hashPlacementSkipsMostCoordination() throws Exception {
+        long start = System.nanoTime();
+        List<ProgressEvent<ResourceModel, CallbackContext>> results = createAll("SubnetIdHash");
+        assertWithinBudget(start, models.size(), MAX_CALLS_PER_CREATE);
+
+        Set<String> blocks = new HashSet<>();
+        for (ProgressEvent<ResourceModel, CallbackContext> result : results) {
+            assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+            blocks.add(result.getResourceModel().getSubnetIPv6Cidr());
+        }
+        assertThat(blocks).hasSize(models.size());
+        // Hash placement only reserves when it collides, so most creates never wait on a tag.
+        assertThat(ec2.callCount("CreateTags")).isLessThan(models.size() * 2);
+    }
+
+    @Test
+    public void createDeleteCyclesLeaveNothingBehind() throws Exception {
+        int cycles = 3;
+        long start = System.nanoTime();
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            for (ProgressEvent<ResourceModel, CallbackContext> result : createAll(null)) {
+                assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+            }
+
+            List<Supplier<ProgressEvent<ResourceModel, CallbackContext>>> deletes = new ArrayList<>();
+            for (ResourceModel model : models) {
+                deletes.add(() -> drive(new DeleteHandler(), model));
+            }
+            for (ProgressEvent<ResourceModel, CallbackContext> result : runAll(deletes)) {
+                assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+            }
+
+            for (ResourceModel model : models) {
+                assertThat(ec2.activeBlock(model.getSubnetId())).isEmpty();
+                assertThat(ec2.tags(model.getSubnetId())).isEmpty();
+                assertThat(ec2.ipv6Routes(model.getRouteTableId())).isEmpty();
+            }
+        }
+
+        assertWithinBudget(start, cycles * models.size(), MAX_CALLS_PER_CREATE + MAX_CALLS_PER_DELETE);
+    }
+
+    @Test
+    public void fullVpcBlockSpillsIntoTheNextOne() throws Exception {
+        String vpcId = ec2.createVpc("2600:1f18:abcd:1200::/62", "2600:1f18:ef01:4500::/62");
+        models = createModels(vpcId, 8);
+
+        long start = System.nanoTime();
+        Set<String> blocks = new HashSet<>();
+        for (ProgressEvent<ResourceModel, CallbackContext> result : createAll(null)) {
+            assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+            blocks.add(result.getResourceModel().getSubnetIPv6Cidr());
+        }
+        assertThat(blocks).hasSize(8);
+        assertThat(blocks).filteredOn(block -> block.startsWith("2600:1f18:ef01:450")).hasSize(4);
+        assertWithinBudget(start, models.size(), MAX_CALLS_PER_CREATE);
+    }
+
+    @Test
+    public void abandonedCreateReleasesItsReservation() {
+        ec2.withTransitionDescribes(1_000);
+        ResourceModel model = models.get(0);
+
+        ProgressEvent<ResourceModel, CallbackContext> result = drive(new CreateHandler(), model);
+
+        assertThat(result.getErrorCode()).isEqualTo(HandlerErrorCode.NotStabilized);
+        assertThat(ec2.tags(model.getSubnetId()))
+                .doesNotContainKeys(SubnetTagger.SUBNET_INDEX, SubnetTagger.VPC_BLOCK);
+    }
+
+    @Test
+    public void failedAssociationReleasesItsReservation() {
+        ec2.withFailingAssociations(true);
+        ResourceModel model = models.get(0);
+
+        ProgressEvent<ResourceModel, CallbackContext> result = drive(new CreateHandler(), model);
+
+        assertThat(result.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(result.getErrorCode()).isEqualTo(HandlerErrorCode.NotStabilized);
+        assertThat(result.getMessage()).contains("failed");
+        assertThat(ec2.tags(model.getSubnetId()))
+                .doesNotContainKeys(SubnetTagger.SUBNET_INDEX, SubnetTagger.VPC_BLOCK);
+    }
+
+    private List<ResourceModel> createModels(String vpcId, int count) {
+        List<ResourceModel> created = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String subnetId = ec2.createSubnet(vpcId, "sim-east-1" + (char)('a' + i % 3));
+            created.add(ResourceModel.builder()
+                    .subnetId(subnetId)
+                    .cidrSize(64)
+                    .routeTableId(ec2.createRouteTable(vpcId, subnetId))
+                    .egressOnlyInternetGatewayId(gatewayId)
+                    .build());
+        }
+        return created;
+    }
+
+    private List<ProgressEvent<ResourceModel, CallbackContext>> createAll(String indexPlacement) throws Exception {
+        List<Supplier<ProgressEvent<ResourceModel, CallbackContext>>> creates = new ArrayList<>();
+        for (ResourceModel model : models) {
+            ResourceModel desired = ResourceModel.builder()
+                    .subnetId(model.getSubnetId())
+                    .cidrSize(model.getCidrSize())
+                    .routeTableId(model.getRouteTableId())
+                    .egressOnlyInternetGatewayId(model.getEgressOnlyInternetGatewayId())
+                    .indexPlacement(indexPlacement)
+                    .build();
+            creates.add(() -> drive(new CreateHandler(), desired));
+        }
+        return runAll(creates);
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> drive(BaseHandler<CallbackContext> handler, ResourceModel model) {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(model)
+                .region(REGION)
+                .build();
+
+        CallbackContext context = null;
+        ProgressEvent<ResourceModel, CallbackContext> event;
+        int callbacks = 0;
+        do {
+            event = handler.handleRequest(proxy, request, context, logger);
+            context = event.getCallbackContext();
+        } while (event.getStatus() == OperationStatus.IN_PROGRESS && ++callbacks < MAX_CALLBACKS);
+        return event;
+    }
+
+    private static <T> List<T> runAll(List<Supplier<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (Supplier<T> task : tasks) {
+                futures.add(executor.submit(task::get));
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks the API calls, throttles and wall-clock time spent on {@code runs} handler runs
+     * since {@code startNanos}. Calls made by earlier setup are counted too, which only makes
+     * the budget stricter.
+     */
+    private void assertWithinBudget(long startNanos, int runs, int maxCallsPerRun) {
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        double resourcesPerSecond = runs * 1_000.0 / elapsedMillis;
+
+        assertThat(ec2.totalCalls()).as("EC2 calls: %s", ec2.callCounts())
+                .isLessThanOrEqualTo(runs * maxCallsPerRun);
+        assertThat(ec2.throttleCount()).as("throttled calls out of %s", ec2.totalCalls())
+                .isLessThanOrEqualTo(ec2.totalCalls() / 20 + 5);
+        assertThat(resourcesPerSecond).as("resources per second over %s ms", elapsedMillis)
+                .isGreaterThanOrEqualTo(MIN_RESOURCES_PER_SECOND);
+    }
+}
@@ -0,0 +1,131 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.AssociateSubnetCidrBlockRequest;
+import com.amazonaws.services.ec2.model.CreateRouteRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ListHandlerTest {
+
+    private static final CidrBlock VPC_CIDR = CidrBlock.parse("2600:1f18:abcd:1200::/56");
+
+    private FakeEc2 ec2;
+    private HandlerDriver driver;
+    private String vpcId;
+    private String gatewayId;
+    private int nextIndex;
+
+    @BeforeEach
+    public void setup() {
+        ec2 = new FakeEc2(13).withTransitionDescribes(0);
+        driver = new HandlerDriver(ec2);
+
+        vpcId = ec2.createVpc(VPC_CIDR.toString());
+        gatewayId = ec2.createEgressOnlyInternetGateway();
+    }
+
+    @Test
+    public void listsOnlySubnetsWithTheIndexTag() {
+        String tagged = createSubnet();
+        routeThrough(ec2.createRouteTable(vpcId, tagged));
+        String untagged = ec2.createSubnet(vpcId, "us-east-1a");
+        routeThrough(ec2.createRouteTable(vpcId, untagged));
+        associate(untagged, VPC_CIDR.nthChild(64, 200));
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.list(null);
+
+        assertThat(result.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(subnetIds(result)).containsExactly(tagged);
+        assertThat(result.getNextToken()).isNull();
+    }
+
+    @Test
+    public void passesTheNextTokenThrough() {
+        routeThrough(ec2.mainRouteTable(vpcId));
+        for (int i = 0; i < 105; i++) {
+            createSubnet();
+        }
+
+        ProgressEvent<ResourceModel, CallbackContext> first = driver.list(null);
+
+        assertThat(first.getResourceModels()).hasSize(100);
+        assertThat(first.getNextToken()).isNotNull();
+
+        ProgressEvent<ResourceModel, CallbackContext> second = driver.list(first.getNextToken());
+
+        assertThat(second.getResourceModels()).hasSize(5);
+        assertThat(second.getNextToken()).isNull();
+        assertThat(subnetIds(second)).doesNotContainAnyElementsOf(subnetIds(first));
+    }
+
+    @Test
+    public void fallsBackToTheMainRouteTable() {
+        String mainRouteTable = ec2.mainRouteTable(vpcId);
+        routeThrough(mainRouteTable);
+        String explicit = createSubnet();
+        String explicitRouteTable = ec2.createRouteTable(vpcId, explicit);
+        routeThrough(explicitRouteTable);
+        String implicit = createSubnet();
+
+        List<ResourceModel> models = driver.list(null).getResourceModels();
+
+        assertThat(models).hasSize(2);
+        ResourceModel explicitModel = model(models, explicit);
+        assertThat(explicitModel.getRouteTableId()).isEqualTo(explicitRouteTable);
+        ResourceModel implicitModel = model(models, implicit);
+        assertThat(implicitModel.getRouteTableId()).isEqualTo(mainRouteTable);
+        assertThat(implicitModel.getEgressOnlyInternetGatewayId()).isEqualTo(gatewayId);
+        assertThat(implicitModel.getSubnetIPv6Cidr()).isEqualTo(VPC_CIDR.nthChild(64, 1).toString());
+    }
+
+    /**
+     * A subnet tagged and associated the way a finished create leaves it.
+     */
+    private String createSubnet() {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        int index = nextIndex++;
+        ec2.createTags(new CreateTagsRequest()
+                .withResources(subnetId)
+                .withTags(
+                        new Tag(SubnetTagger.SUBNET_INDEX, Integer.toString(index)),
+                        new Tag(SubnetTagger.VPC_BLOCK, VPC_CIDR.toString())));
+        associate(subnetId, VPC_CIDR.nthChild(64, index));
+        return subnetId;
+    }
+
+    private void associate(String subnetId, CidrBlock block) {
+        ec2.associateSubnetCidrBlock(new AssociateSubnetCidrBlockRequest()
+                .withSubnetId(subnetId)
+                .withIpv6CidrBlock(block.toString()));
+    }
+
+    private void routeThrough(String routeTableId) {
+        ec2.createRoute(new CreateRouteRequest()
+                .withRouteTableId(routeTableId)
+                .withDestinationIpv6CidrBlock(DefaultRouteManager.DEFAULT_ROUTE)
+                .withEgressOnlyInternetGatewayId(gatewayId));
+    }
+
+    private static List<String> subnetIds(ProgressEvent<ResourceModel, CallbackContext> result) {
+        return result.getResourceModels().stream().map(ResourceModel::getSubnetId).collect(Collectors.toList());
+    }
+
+    private static ResourceModel model(List<ResourceModel> models, String subnetId) {
+        return models.stream()
+                .filter(model -> subnetId.equals(model.getSubnetId()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No model for " + subnetId));
+    }
+}
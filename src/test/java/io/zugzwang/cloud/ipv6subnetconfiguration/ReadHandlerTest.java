@@ -0,0 +1,99 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.AssociateSubnetCidrBlockRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReadHandlerTest {
+
+    private static final String VPC_CIDR = "2600:1f18:abcd:1200::/56";
+    private static final String SUBNET_CIDR = "2600:1f18:abcd:1203::/72";
+
+    private FakeEc2 ec2;
+    private HandlerDriver driver;
+    private String subnetId;
+    private ResourceModel model;
+
+    @BeforeEach
+    public void setup() {
+        ec2 = new FakeEc2(5).withTransitionDescribes(0);
+        driver = new HandlerDriver(ec2);
+
+        String vpcId = ec2.createVpc(VPC_CIDR);
+        subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        model = ResourceModel.builder()
+                .subnetId(subnetId)
+                .cidrSize(64)
+                .routeTableId(ec2.createRouteTable(vpcId, subnetId))
+                .egressOnlyInternetGatewayId(ec2.createEgressOnlyInternetGateway())
+                .build();
+    }
+
+    @Test
+    public void notFoundWithoutIndexTag() {
+        associate();
+
+        assertNotFound(driver.read(model));
+    }
+
+    @Test
+    public void notFoundWithoutActiveAssociation() {
+        tagIndex();
+
+        assertNotFound(driver.read(model));
+    }
+
+    @Test
+    public void readsSizeFromTheAssociatedBlock() {
+        tagIndex();
+        associate();
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.read(model);
+
+        assertThat(result.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(result.getResourceModel().getCidrSize()).isEqualTo(72);
+        assertThat(result.getResourceModel().getSubnetIPv6Cidr()).isEqualTo(SUBNET_CIDR);
+        assertThat(result.getResourceModel().getVpcIPv6Cidr()).isEqualTo(VPC_CIDR);
+        assertThat(result.getResourceModel().getRouteTableId()).isEqualTo(model.getRouteTableId());
+        assertThat(ec2.callCount("DescribeVpcs")).isEqualTo(1);
+    }
+
+    @Test
+    public void skipsDescribeVpcsWhenTheModelHasTheVpcBlock() {
+        tagIndex();
+        associate();
+        model.setVpcIPv6Cidr(VPC_CIDR);
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.read(model);
+
+        assertThat(result.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(result.getResourceModel().getVpcIPv6Cidr()).isEqualTo(VPC_CIDR);
+        assertThat(ec2.callCount("DescribeVpcs")).isZero();
+    }
+
+    private void tagIndex() {
+        ec2.createTags(new CreateTagsRequest()
+                .withResources(subnetId)
+                .withTags(new Tag(SubnetTagger.SUBNET_INDEX, "259"), new Tag(SubnetTagger.VPC_BLOCK, VPC_CIDR)));
+    }
+
+    private void associate() {
+        ec2.associateSubnetCidrBlock(new AssociateSubnetCidrBlockRequest()
+                .withSubnetId(subnetId)
+                .withIpv6CidrBlock(SUBNET_CIDR));
+    }
+
+    private static void assertNotFound(ProgressEvent<ResourceModel, CallbackContext> result) {
+        assertThat(result.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(result.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+    }
+}
@@ -0,0 +1,110 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration;
+
+import com.amazonaws.services.ec2.model.DeleteRouteRequest;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpdateHandlerTest {
+
+    private static final String VPC_CIDR = "2600:1f18:abcd:1200::/56";
+
+    private FakeEc2 ec2;
+    private HandlerDriver driver;
+    private ResourceModel created;
+
+    @BeforeEach
+    public void setup() {
+        ec2 = new FakeEc2(11);
+        driver = new HandlerDriver(ec2);
+
+        String vpcId = ec2.createVpc(VPC_CIDR);
+        String gatewayId = ec2.createEgressOnlyInternetGateway();
+        // The neighbour takes index 0, so this subnet starts out at /64 index 1.
+        create(vpcId, gatewayId);
+        created = create(vpcId, gatewayId);
+        assertThat(created.getSubnetIPv6Cidr()).isEqualTo("2600:1f18:abcd:1201::/64");
+    }
+
+    @Test
+    public void gatewayChangeOnlyReplacesTheRoute() {
+        ResourceModel desired = HandlerDriver.copy(created);
+        desired.setEgressOnlyInternetGatewayId(ec2.createEgressOnlyInternetGateway());
+        Map<String, Integer> before = ec2.callCounts();
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.update(created, desired);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(result.getResourceModel().getSubnetIPv6Cidr()).isEqualTo(created.getSubnetIPv6Cidr());
+        assertThat(ec2.ipv6Routes(created.getRouteTableId()))
+                .containsEntry("::/0", desired.getEgressOnlyInternetGatewayId());
+        assertThat(callsSince(before, "ReplaceRoute")).isEqualTo(1);
+        assertThat(callsSince(before, "CreateRoute")).isZero();
+        assertThat(callsSince(before, "AssociateSubnetCidrBlock")).isZero();
+        assertThat(callsSince(before, "DisassociateSubnetCidrBlock")).isZero();
+    }
+
+    @Test
+    public void cidrSizeChangeSwapsTheBlock() {
+        ResourceModel desired = HandlerDriver.copy(created);
+        desired.setCidrSize(72);
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.update(created, desired);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        String block = result.getResourceModel().getSubnetIPv6Cidr();
+        assertThat(CidrBlock.parse(block).getPrefixLength()).isEqualTo(72);
+        assertThat(ec2.activeBlocks(created.getSubnetId())).containsExactly(block);
+
+        // The neighbour's /64 covers /72 indexes 0 to 255, and the released /64 starts at 256.
+        assertThat(block).isEqualTo("2600:1f18:abcd:1201::/72");
+        assertThat(CidrBlock.parse(VPC_CIDR).childIndex(CidrBlock.parse(block))).isEqualTo(256);
+        assertThat(ec2.tags(created.getSubnetId()))
+                .containsEntry(SubnetTagger.SUBNET_INDEX, "256")
+                .containsEntry(SubnetTagger.VPC_BLOCK, VPC_CIDR);
+        assertThat(ec2.ipv6Routes(created.getRouteTableId()))
+                .containsEntry("::/0", created.getEgressOnlyInternetGatewayId());
+    }
+
+    @Test
+    public void missingRouteIsCreatedInstead() {
+        ec2.deleteRoute(new DeleteRouteRequest()
+                .withRouteTableId(created.getRouteTableId())
+                .withDestinationIpv6CidrBlock("::/0"));
+        ResourceModel desired = HandlerDriver.copy(created);
+        desired.setEgressOnlyInternetGatewayId(ec2.createEgressOnlyInternetGateway());
+        Map<String, Integer> before = ec2.callCounts();
+
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.update(created, desired);
+
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(ec2.ipv6Routes(created.getRouteTableId()))
+                .containsEntry("::/0", desired.getEgressOnlyInternetGatewayId());
+        assertThat(callsSince(before, "ReplaceRoute")).isEqualTo(1);
+        assertThat(callsSince(before, "CreateRoute")).isEqualTo(1);
+    }
+
+    private ResourceModel create(String vpcId, String gatewayId) {
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        ProgressEvent<ResourceModel, CallbackContext> result = driver.create(ResourceModel.builder()
+                .subnetId(subnetId)
+                .cidrSize(64)
+                .routeTableId(ec2.createRouteTable(vpcId, subnetId))
+                .egressOnlyInternetGatewayId(gatewayId)
+                .build());
+        assertThat(result.getStatus()).as(result.getMessage()).isEqualTo(OperationStatus.SUCCESS);
+        return result.getResourceModel();
+    }
+
+    private int callsSince(Map<String, Integer> before, String operation) {
+        return ec2.callCount(operation) - before.getOrDefault(operation, 0);
+    }
+}
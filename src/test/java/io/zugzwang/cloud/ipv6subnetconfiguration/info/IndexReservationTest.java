@@ -0,0 +1,61 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetCidrBlockState;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class IndexReservationTest {
+
+    @Test
+    public void lowestSubnetIdWins() {
+        Subnet first = new Subnet().withSubnetId("subnet-0a");
+        Subnet second = new Subnet().withSubnetId("subnet-0b");
+
+        Assertions.assertTrue(IndexReservation.wins("subnet-0a", Arrays.asList(second, first)));
+        Assertions.assertFalse(IndexReservation.wins("subnet-0b", Arrays.asList(second, first)));
+    }
+
+    @Test
+    public void subnetWithBlockKeepsIndex() {
+        Subnet allocated = new Subnet()
+                .withSubnetId("subnet-0b")
+                .withIpv6CidrBlockAssociationSet(new SubnetIpv6CidrBlockAssociation()
+                        .withIpv6CidrBlockState(new SubnetCidrBlockState().withState("associated")));
+        Subnet contender = new Subnet().withSubnetId("subnet-0a");
+
+        Assertions.assertFalse(IndexReservation.wins("subnet-0a", Arrays.asList(contender, allocated)));
+    }
+
+    @Test
+    public void unseenReservationDoesNotWin() {
+        Assertions.assertFalse(IndexReservation.wins("subnet-0a", Collections.emptyList()));
+        Assertions.assertTrue(IndexReservation.wins("subnet-0a",
+                Collections.singletonList(new Subnet().withSubnetId("subnet-0a"))));
+    }
+
+    @Test
+    public void indexIsHeldPerVpcBlock() {
+        CidrBlock first = CidrBlock.parse("2600:1f18:abcd:1200::/56");
+        CidrBlock second = CidrBlock.parse("2600:1f18:abcd:1300::/56");
+        Subnet allocated = new Subnet()
+                .withIpv6CidrBlockAssociationSet(new SubnetIpv6CidrBlockAssociation()
+                        .withIpv6CidrBlock("2600:1f18:abcd:1301::/64")
+                        .withIpv6CidrBlockState(new SubnetCidrBlockState().withState("associated")));
+        Subnet reserved = new Subnet().withTags(new Tag(SubnetTagger.VPC_BLOCK, first.toString()));
+        Subnet legacy = new Subnet().withTags(new Tag(SubnetTagger.SUBNET_INDEX, "1"));
+
+        Assertions.assertFalse(IndexReservation.holdsIndexIn(allocated, first));
+        Assertions.assertTrue(IndexReservation.holdsIndexIn(allocated, second));
+        Assertions.assertTrue(IndexReservation.holdsIndexIn(reserved, first));
+        Assertions.assertFalse(IndexReservation.holdsIndexIn(reserved, second));
+        Assertions.assertTrue(IndexReservation.holdsIndexIn(legacy, second));
+    }
+}
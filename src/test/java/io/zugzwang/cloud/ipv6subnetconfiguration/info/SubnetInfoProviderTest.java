@@ -0,0 +1,153 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.ec2.model.AssociateSubnetCidrBlockRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Tag;
+import io.zugzwang.cloud.ipv6subnetconfiguration.retry.RetryingInvoker;
+import io.zugzwang.cloud.ipv6subnetconfiguration.simulation.FakeEc2;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SubnetInfoProviderTest {
+
+    private static final int IPV4_ONLY_SUBNETS = 10;
+
+    private FakeEc2 ec2;
+    private AmazonWebServicesClientProxy proxy;
+    private Logger logger;
+
+    private String ownSubnet;
+    private String taggedAndAssociated;
+    private String associatedOnly;
+    private String reservedOnly;
+
+    @BeforeEach @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        ec2 = new FakeEc2(7).withTransitionDescribes(0);
+        // Every fake numbers its VPCs from one, so snapshots cached by an earlier test would match.
+        VpcTopologyCache.shared().clear();
+        proxy = mock(AmazonWebServicesClientProxy.class);
+        when(proxy.injectCredentialsAndInvoke(any(AmazonWebServiceRequest.class), any(Function.class)))
+                .thenAnswer(invocationOnMock -> {
+                    Function func = invocationOnMock.getArgument(1);
+                    AmazonWebServiceRequest request = invocationOnMock.getArgument(0);
+                    return func.apply(request);
+                });
+        logger = mock(Logger.class);
+
+        String vpcId = ec2.createVpc("2600:1f18:abcd:1200::/56");
+        ownSubnet = ec2.createSubnet(vpcId, "us-east-1a");
+        for (int i = 0; i < IPV4_ONLY_SUBNETS; i++) {
+            ec2.createSubnet(vpcId, "us-east-1a");
+        }
+        taggedAndAssociated = ec2.createSubnet(vpcId, "us-east-1b");
+        tagIndex(taggedAndAssociated, 0);
+        associate(taggedAndAssociated, "2600:1f18:abcd:1200::/64");
+        associatedOnly = ec2.createSubnet(vpcId, "us-east-1b");
+        associate(associatedOnly, "2600:1f18:abcd:1201::/64");
+        reservedOnly = ec2.createSubnet(vpcId, "us-east-1c");
+        tagIndex(reservedOnly, 2);
+    }
+
+    @Test
+    public void smallVpcIsListedInOnePage() {
+        VpcSnapshot snapshot = provider().loadVpcSnapshot();
+
+        Assertions.assertEquals(
+                new HashSet<>(Arrays.asList(ownSubnet, taggedAndAssociated, associatedOnly, reservedOnly)),
+                subnetIds(snapshot));
+        Assertions.assertEquals(4, snapshot.getSubnets().size());
+        // One call for this subnet and a single page for the whole VPC.
+        Assertions.assertEquals(2, ec2.callCount("DescribeSubnets"));
+    }
+
+    @Test
+    public void largeVpcIsFilteredByEc2() {
+        ec2.withPageSize(2);
+
+        VpcSnapshot snapshot = provider().loadVpcSnapshot();
+
+        Assertions.assertEquals(
+                new HashSet<>(Arrays.asList(ownSubnet, taggedAndAssociated, associatedOnly, reservedOnly)),
+                subnetIds(snapshot));
+        Assertions.assertEquals(4, snapshot.getSubnets().size());
+        // This subnet, the first unfiltered page, then one page each for the IPv6 and the tagged
+        // subnets. Listing every subnet two at a time would take seven pages.
+        Assertions.assertEquals(4, ec2.callCount("DescribeSubnets"));
+    }
+
+    @Test
+    public void ownSubnetIsTakenFromTheListingOnceTagged() {
+        ec2.withPageSize(2);
+        tagIndex(ownSubnet, 3);
+
+        List<Subnet> own = provider().loadVpcSnapshot().getSubnets().stream()
+                .filter(subnet -> ownSubnet.equals(subnet.getSubnetId()))
+                .collect(Collectors.toList());
+
+        Assertions.assertEquals(1, own.size());
+        Assertions.assertTrue(SubnetTagger.hasSubnetIndexTag(own.get(0)));
+    }
+
+    @Test
+    public void reservationsCountInTheVpcBlockTheyAreTaggedWith() {
+        CidrBlock first = CidrBlock.parse("2600:1f18:abcd:1200::/63");
+        CidrBlock second = CidrBlock.parse("2600:1f18:ef01:4500::/63");
+        String vpcId = ec2.createVpc(first.toString(), second.toString());
+        String subnetId = ec2.createSubnet(vpcId, "us-east-1a");
+        associate(ec2.createSubnet(vpcId, "us-east-1a"), "2600:1f18:abcd:1200::/64");
+        associate(ec2.createSubnet(vpcId, "us-east-1a"), "2600:1f18:abcd:1201::/64");
+        String reserved = ec2.createSubnet(vpcId, "us-east-1a");
+        ec2.createTags(new CreateTagsRequest()
+                .withResources(reserved)
+                .withTags(new Tag(SubnetTagger.SUBNET_INDEX, "0"), new Tag(SubnetTagger.VPC_BLOCK, second.toString())));
+
+        SubnetInfo info = provider(subnetId).loadSubnetInfo(64);
+
+        Assertions.assertEquals(second, info.getVpcCidrBlock());
+        Assertions.assertEquals(1, info.getSubnetIndex());
+        Assertions.assertEquals(CidrBlock.parse("2600:1f18:ef01:4501::/64"), info.getSubnetCidrBlock());
+    }
+
+    private SubnetInfoProvider provider() {
+        return provider(ownSubnet);
+    }
+
+    private SubnetInfoProvider provider(String subnetId) {
+        return new SubnetInfoProvider(ec2, new RetryingInvoker(proxy), subnetId, logger);
+    }
+
+    private void tagIndex(String subnetId, int index) {
+        ec2.createTags(new CreateTagsRequest()
+                .withResources(subnetId)
+                .withTags(new Tag(SubnetTagger.SUBNET_INDEX, Integer.toString(index))));
+    }
+
+    private void associate(String subnetId, String block) {
+        ec2.associateSubnetCidrBlock(new AssociateSubnetCidrBlockRequest()
+                .withSubnetId(subnetId)
+                .withIpv6CidrBlock(block));
+    }
+
+    private static Set<String> subnetIds(VpcSnapshot snapshot) {
+        return snapshot.getSubnets().stream().map(Subnet::getSubnetId).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,98 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.info;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.SubnetIpv6CidrBlockAssociation;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.Vpc;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+import io.zugzwang.cloud.ipv6subnetconfiguration.tagger.SubnetTagger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class VpcTopologyCacheTest {
+
+    private static final CidrBlock VPC_BLOCK = CidrBlock.parse("2600:1f18:abcd:1200::/56");
+
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    @Test
+    public void expiresEntriesAfterTtl() {
+        VpcTopologyCache cache = new VpcTopologyCache(4, 100, now::get);
+        cache.put(snapshot("vpc-1", new Subnet().withSubnetId("subnet-1")));
+
+        now.addAndGet(99);
+        Assertions.assertTrue(cache.get("vpc-1").isPresent());
+        now.addAndGet(1);
+        Assertions.assertFalse(cache.get("vpc-1").isPresent());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedVpc() {
+        VpcTopologyCache cache = new VpcTopologyCache(2, 100, now::get);
+        cache.put(snapshot("vpc-1"));
+        cache.put(snapshot("vpc-2"));
+        cache.get("vpc-1");
+        cache.put(snapshot("vpc-3"));
+
+        Assertions.assertTrue(cache.get("vpc-1").isPresent());
+        Assertions.assertFalse(cache.get("vpc-2").isPresent());
+        Assertions.assertTrue(cache.get("vpc-3").isPresent());
+    }
+
+    @Test
+    public void patchesOwnTagsAndAssociations() {
+        VpcTopologyCache cache = new VpcTopologyCache(4, 100, now::get);
+        Subnet original = new Subnet()
+                .withSubnetId("subnet-1")
+                .withTags(new Tag("Name", "app"), new Tag(SubnetTagger.SUBNET_INDEX, "3"));
+        cache.put(snapshot("vpc-1", original, new Subnet().withSubnetId("subnet-2")));
+        VpcSnapshot before = cache.get("vpc-1").get();
+
+        cache.recordIndexTag("vpc-1", "subnet-1", 7, VPC_BLOCK);
+        cache.recordAssociation("vpc-1", "subnet-1",
+                new SubnetIpv6CidrBlockAssociation().withIpv6CidrBlock("2600:1f18:abcd:1207::/64"));
+
+        Subnet patched = cache.get("vpc-1").get().findSubnet("subnet-1").get();
+        Assertions.assertEquals(Optional.of(7), SubnetTagger.getSubnetIndexFromTag(patched));
+        Assertions.assertEquals(Optional.of(VPC_BLOCK), SubnetTagger.getVpcBlockFromTag(patched));
+        Assertions.assertEquals(3, patched.getTags().size());
+        Assertions.assertEquals(1, patched.getIpv6CidrBlockAssociationSet().size());
+
+        Assertions.assertEquals(Optional.of(3), SubnetTagger.getSubnetIndexFromTag(before.findSubnet("subnet-1").get()));
+        Assertions.assertEquals(Optional.of(3), SubnetTagger.getSubnetIndexFromTag(original));
+    }
+
+    @Test
+    public void patchingDoesNotExtendLifetime() {
+        VpcTopologyCache cache = new VpcTopologyCache(4, 100, now::get);
+        cache.put(snapshot("vpc-1", new Subnet().withSubnetId("subnet-1")));
+
+        now.addAndGet(60);
+        cache.recordIndexTag("vpc-1", "subnet-1", 1, VPC_BLOCK);
+        now.addAndGet(40);
+
+        Assertions.assertFalse(cache.get("vpc-1").isPresent());
+    }
+
+    @Test
+    public void invalidateDropsEntry() {
+        VpcTopologyCache cache = new VpcTopologyCache(4, 100, now::get);
+        cache.put(snapshot("vpc-1"));
+        cache.invalidate("vpc-1");
+        cache.invalidate(null);
+
+        Assertions.assertFalse(cache.get("vpc-1").isPresent());
+    }
+
+    private static VpcSnapshot snapshot(String vpcId, Subnet... subnets) {
+        return VpcSnapshot.builder()
+                .vpc(new Vpc().withVpcId(vpcId))
+                .subnets(new ArrayList<>(Arrays.asList(subnets)))
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.logging;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.cloudformation.proxy.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class HandlerLogTest {
+
+    @Mock private Logger logger;
+
+    @Test
+    public void writesOneJsonLinePerEvent() {
+        HandlerLog log = new HandlerLog(logger, HandlerLog.Level.INFO);
+
+        log.info("VpcLoaded", () -> HandlerLog.fields("vpcId", "vpc-1", "subnetCount", 3));
+
+        ArgumentCaptor<String> line = ArgumentCaptor.forClass(String.class);
+        verify(logger).log(line.capture());
+        JSONObject json = new JSONObject(line.getValue());
+        assertEquals("INFO", json.getString("level"));
+        assertEquals("VpcLoaded", json.getString("event"));
+        assertEquals(3, json.getInt("subnetCount"));
+    }
+
+    @Test
+    public void skipsDisabledLevelsWithoutBuildingFields() {
+        HandlerLog log = new HandlerLog(logger, HandlerLog.Level.INFO);
+
+        log.debug("SubnetDump", () -> {
+            throw new AssertionError("Debug fields must not be built at INFO.");
+        });
+
+        verifyZeroInteractions(logger);
+    }
+
+    @Test
+    public void parsesLevels() {
+        assertEquals(HandlerLog.Level.DEBUG, HandlerLog.parseLevel("debug"));
+        assertEquals(HandlerLog.Level.INFO, HandlerLog.parseLevel(null));
+        assertEquals(HandlerLog.Level.INFO, HandlerLog.parseLevel("verbose"));
+    }
+}
@@ -0,0 +1,52 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class InvocationMetricsTest {
+
+    @Test
+    public void rendersEmbeddedMetricFormat() {
+        InvocationMetrics metrics = new InvocationMetrics("Create", 1_000);
+        metrics.recordCall("DescribeSubnets", 40);
+        metrics.recordCall("DescribeSubnets", 60);
+        metrics.recordThrottle("DescribeSubnets");
+        metrics.recordPages("DescribeSubnets", 3);
+        metrics.recordCall("CreateTags", 25);
+        metrics.setStatus("IN_PROGRESS");
+
+        JSONObject line = new JSONObject(metrics.toEmf(1_500));
+
+        Assertions.assertEquals("Create", line.getString("Action"));
+        Assertions.assertEquals("IN_PROGRESS", line.getString("Status"));
+        Assertions.assertEquals(2, line.getInt("DescribeSubnetsCalls"));
+        Assertions.assertEquals(2, line.getJSONArray("DescribeSubnetsLatency").length());
+        Assertions.assertEquals(1, line.getInt("DescribeSubnetsThrottles"));
+        Assertions.assertEquals(3, line.getInt("DescribeSubnetsPages"));
+        Assertions.assertEquals(3, line.getInt("ApiCalls"));
+        Assertions.assertEquals(500, line.getLong("Duration"));
+        Assertions.assertFalse(line.has("CreateTagsThrottles"));
+
+        JSONObject directive = line.getJSONObject("_aws").getJSONArray("CloudWatchMetrics").getJSONObject(0);
+        Assertions.assertEquals(InvocationMetrics.NAMESPACE, directive.getString("Namespace"));
+        JSONArray definitions = directive.getJSONArray("Metrics");
+        for (int i = 0; i < definitions.length(); i++) {
+            Assertions.assertTrue(line.has(definitions.getJSONObject(i).getString("Name")));
+        }
+    }
+
+    @Test
+    public void capsLatencySamples() {
+        InvocationMetrics metrics = new InvocationMetrics("List", 0);
+        for (int i = 0; i < InvocationMetrics.MAX_VALUES + 20; i++) {
+            metrics.recordCall("DescribeSubnets", i);
+        }
+
+        JSONObject line = new JSONObject(metrics.toEmf(0));
+
+        Assertions.assertEquals(InvocationMetrics.MAX_VALUES, line.getJSONArray("DescribeSubnetsLatency").length());
+        Assertions.assertEquals(InvocationMetrics.MAX_VALUES + 20, line.getInt("DescribeSubnetsCalls"));
+    }
+}
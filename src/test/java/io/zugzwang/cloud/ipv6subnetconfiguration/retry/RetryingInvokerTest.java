@@ -0,0 +1,136 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.retry;
+
+import java.util.function.Function;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RetryingInvokerTest {
+
+    private static final RetryPolicy NO_DELAY_POLICY = RetryPolicy.builder()
+            .maxAttempts(3)
+            .baseDelayMillis(0)
+            .build();
+
+    private RetryingInvoker invoker;
+
+    @Mock private AmazonEC2 ec2Client;
+    @Mock private AmazonWebServicesClientProxy proxy;
+    @Mock private Logger logger;
+
+    @BeforeEach @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        lenient().when(proxy.injectCredentialsAndInvoke(any(AmazonWebServiceRequest.class), any(Function.class)))
+                .thenAnswer(invocationOnMock -> {
+                    Function func = invocationOnMock.getArgument(1);
+                    AmazonWebServiceRequest request = invocationOnMock.getArgument(0);
+                    return func.apply(request);
+                });
+
+        invoker = new RetryingInvoker(proxy, NO_DELAY_POLICY, logger);
+    }
+
+    @Test
+    public void retriesThrottledCalls() {
+        DescribeSubnetsResult expected = new DescribeSubnetsResult();
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenThrow(serviceException("RequestLimitExceeded", 400))
+                .thenReturn(expected);
+
+        DescribeSubnetsResult result = invoker.invoke(new DescribeSubnetsRequest(), ec2Client::describeSubnets);
+
+        assertSame(expected, result);
+        verify(ec2Client, times(2)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+
+    @Test
+    public void recordsCallsAndThrottles() {
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenThrow(serviceException("RequestLimitExceeded", 400))
+                .thenReturn(new DescribeSubnetsResult());
+
+        invoker.invoke(new DescribeSubnetsRequest(), ec2Client::describeSubnets);
+
+        assertEquals(2, invoker.getMetrics().getCallCount("DescribeSubnets"));
+        assertTrue(invoker.getMetrics().toEmf(System.currentTimeMillis()).contains("\"DescribeSubnetsThrottles\":1"));
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenThrow(serviceException("InternalError", 500));
+
+        assertThrows(AmazonServiceException.class,
+                () -> invoker.invoke(new DescribeSubnetsRequest(), ec2Client::describeSubnets));
+        verify(ec2Client, times(3)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+        when(ec2Client.describeSubnets(any(DescribeSubnetsRequest.class)))
+                .thenThrow(serviceException("InvalidSubnetID.NotFound", 400));
+
+        assertThrows(AmazonServiceException.class,
+                () -> invoker.invoke(new DescribeSubnetsRequest(), ec2Client::describeSubnets));
+        verify(ec2Client, times(1)).describeSubnets(any(DescribeSubnetsRequest.class));
+    }
+
+    @Test
+    public void retriesNonIdempotentCallsOnlyWhenThrottled() {
+        AssociateSubnetCidrBlockResult expected = new AssociateSubnetCidrBlockResult();
+        when(ec2Client.associateSubnetCidrBlock(any(AssociateSubnetCidrBlockRequest.class)))
+                .thenThrow(serviceException("RequestLimitExceeded", 400))
+                .thenThrow(serviceException("InternalError", 500))
+                .thenReturn(expected);
+
+        assertThrows(AmazonServiceException.class,
+                () -> invoker.invoke(new AssociateSubnetCidrBlockRequest(), ec2Client::associateSubnetCidrBlock));
+        verify(ec2Client, times(2)).associateSubnetCidrBlock(any(AssociateSubnetCidrBlockRequest.class));
+    }
+
+    @Test
+    public void retriesTagWritesAfterServerErrors() {
+        CreateTagsResult expected = new CreateTagsResult();
+        when(ec2Client.createTags(any(CreateTagsRequest.class)))
+                .thenThrow(serviceException("InternalError", 500))
+                .thenReturn(expected);
+
+        CreateTagsResult result = invoker.invoke(new CreateTagsRequest(), ec2Client::createTags);
+
+        assertSame(expected, result);
+        verify(ec2Client, times(2)).createTags(any(CreateTagsRequest.class));
+    }
+
+    @Test
+    public void backoffStaysWithinBounds() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .baseDelayMillis(100)
+                .maxDelayMillis(1_000)
+                .build();
+
+        for (int attempt = 1; attempt < 20; attempt++) {
+            long delay = policy.delayMillis(attempt);
+            assertTrue(delay >= 50 && delay <= 1_000, "Delay " + delay + " for attempt " + attempt);
+        }
+    }
+
+    private static AmazonServiceException serviceException(String errorCode, int statusCode) {
+        AmazonServiceException ex = new AmazonServiceException(errorCode);
+        ex.setErrorCode(errorCode);
+        ex.setStatusCode(statusCode);
+        return ex;
+    }
+}
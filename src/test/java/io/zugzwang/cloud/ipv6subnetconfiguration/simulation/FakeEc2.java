@@ -0,0 +1,608 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.simulation;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * An in-memory EC2 holding just enough VPC, subnet, tag, association and route table state to
+ * run the handlers end to end. Associations move through their transitional states as they are
+ * described, and every call can be slowed down, throttled and paginated.
+ */
+public class FakeEc2 extends AbstractAmazonEC2 {
+
+    private final Map<String, VpcState> vpcs = new LinkedHashMap<>();
+    private final Map<String, SubnetState> subnets = new LinkedHashMap<>();
+    private final Map<String, RouteTableState> routeTables = new LinkedHashMap<>();
+
+    private final ConcurrentMap<String, AtomicInteger> callCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> errorCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger throttleCount = new AtomicInteger();
+    private final Random random;
+
+    private long latencyMillis = 0;
+    private double throttleRate = 0;
+    private int pageSize = Integer.MAX_VALUE;
+    private int transitionDescribes = 1;
+    private boolean failAssociations = false;
+    private int nextId = 1;
+
+    public FakeEc2(final long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * How long every call takes, spent outside the lock so concurrent calls overlap.
+     */
+    public FakeEc2 withLatencyMillis(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * The fraction of calls that fail with RequestLimitExceeded.
+     */
+    public FakeEc2 withThrottleRate(final double throttleRate) {
+        this.throttleRate = throttleRate;
+        return this;
+    }
+
+    /**
+     * The most items a describe call returns at once, whatever MaxResults asks for.
+     */
+    public FakeEc2 withPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * How many times an association is described in a transitional state before it settles.
+     */
+    public FakeEc2 withTransitionDescribes(final int transitionDescribes) {
+        this.transitionDescribes = transitionDescribes;
+        return this;
+    }
+
+    /**
+     * Makes new associations end up failed instead of associated once they settle.
+     */
+    public FakeEc2 withFailingAssociations(final boolean failAssociations) {
+        this.failAssociations = failAssociations;
+        return this;
+    }
+
+    public synchronized String createVpc(final String... ipv6Cidrs) {
+        VpcState vpc = new VpcState(newId("vpc"));
+        for (String cidr : ipv6Cidrs) {
+            vpc.blocks.put(newId("vpc-cidr-assoc"), CidrBlock.parse(cidr));
+        }
+        vpcs.put(vpc.id, vpc);
+        RouteTableState main = new RouteTableState(newId("rtb"), vpc.id);
+        main.main = true;
+        routeTables.put(main.id, main);
+        return vpc.id;
+    }
+
+    public synchronized String createSubnet(final String vpcId, final String availabilityZone) {
+        SubnetState subnet = new SubnetState(newId("subnet"), vpcId, availabilityZone);
+        subnets.put(subnet.id, subnet);
+        return subnet.id;
+    }
+
+    public synchronized String createRouteTable(final String vpcId, final String subnetId) {
+        RouteTableState routeTable = new RouteTableState(newId("rtb"), vpcId);
+        routeTable.subnetIds.add(subnetId);
+        routeTables.put(routeTable.id, routeTable);
+        return routeTable.id;
+    }
+
+    public synchronized void associateRouteTable(final String routeTableId, final String subnetId) {
+        routeTables.get(routeTableId).subnetIds.add(subnetId);
+    }
+
+    public synchronized String mainRouteTable(final String vpcId) {
+        return routeTables.values().stream()
+                .filter(routeTable -> routeTable.main && vpcId.equals(routeTable.vpcId))
+                .map(routeTable -> routeTable.id)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No VPC " + vpcId));
+    }
+
+    public synchronized String createEgressOnlyInternetGateway() {
+        return newId("eigw");
+    }
+
+    /**
+     * The subnet's block, if it has one that is associated or on its way there.
+     */
+    public synchronized Optional<String> activeBlock(final String subnetId) {
+        return subnets.get(subnetId).associations.stream()
+                .filter(AssociationState::isActive)
+                .map(association -> association.block.toString())
+                .findFirst();
+    }
+
+    /**
+     * Every block the subnet has that is associated or on its way there.
+     */
+    public synchronized List<String> activeBlocks(final String subnetId) {
+        return subnets.get(subnetId).associations.stream()
+                .filter(AssociationState::isActive)
+                .map(association -> association.block.toString())
+                .collect(Collectors.toList());
+    }
+
+    public synchronized Map<String, String> tags(final String subnetId) {
+        return new LinkedHashMap<>(subnets.get(subnetId).tags);
+    }
+
+    public synchronized Map<String, String> ipv6Routes(final String routeTableId) {
+        return new LinkedHashMap<>(routeTables.get(routeTableId).ipv6Routes);
+    }
+
+    public int callCount(final String operation) {
+        AtomicInteger count = callCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    public int errorCount(final String errorCode) {
+        AtomicInteger count = errorCounts.get(errorCode);
+        return count == null ? 0 : count.get();
+    }
+
+    public int totalCalls() {
+        return callCounts.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public int throttleCount() {
+        return throttleCount.get();
+    }
+
+    public Map<String, Integer> callCounts() {
+        return callCounts.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get(), (a, b) -> a, TreeMap::new));
+    }
+
+    @Override
+    public DescribeVpcsResult describeVpcs(final DescribeVpcsRequest request) {
+        return call("DescribeVpcs", () -> {
+            List<Vpc> result = new ArrayList<>();
+            for (String vpcId : request.getVpcIds()) {
+                VpcState vpc = vpcs.get(vpcId);
+                if (vpc == null) {
+                    throw error("InvalidVpcID.NotFound", "The vpc ID '" + vpcId + "' does not exist");
+                }
+                result.add(vpc.render());
+            }
+            return new DescribeVpcsResult().withVpcs(result);
+        });
+    }
+
+    @Override
+    public DescribeSubnetsResult describeSubnets(final DescribeSubnetsRequest request) {
+        return call("DescribeSubnets", () -> {
+            List<SubnetState> matching = new ArrayList<>();
+            if (request.getSubnetIds() != null && !request.getSubnetIds().isEmpty()) {
+                for (String subnetId : request.getSubnetIds()) {
+                    SubnetState subnet = subnets.get(subnetId);
+                    if (subnet == null) {
+                        throw error("InvalidSubnetID.NotFound", "The subnet ID '" + subnetId + "' does not exist");
+                    }
+                    matching.add(subnet);
+                }
+            } else {
+                matching.addAll(subnets.values());
+            }
+
+            Predicate<SubnetState> filter = subnetFilter(request.getFilters());
+            List<SubnetState> filtered = matching.stream().filter(filter).collect(Collectors.toList());
+
+            int offset = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+            int limit = Math.min(pageSize, request.getMaxResults() == null ? Integer.MAX_VALUE : request.getMaxResults());
+            int end = (int)Math.min(filtered.size(), (long)offset + limit);
+
+            List<Subnet> page = new ArrayList<>();
+            for (SubnetState subnet : filtered.subList(offset, end)) {
+                page.add(subnet.render());
+                subnet.observe();
+            }
+            return new DescribeSubnetsResult()
+                    .withSubnets(page)
+                    .withNextToken(end < filtered.size() ? Integer.toString(end) : null);
+        });
+    }
+
+    @Override
+    public CreateTagsResult createTags(final CreateTagsRequest request) {
+        return call("CreateTags", () -> {
+            List<SubnetState> targets = findSubnets(request.getResources());
+            for (SubnetState subnet : targets) {
+                for (Tag tag : request.getTags()) {
+                    subnet.tags.put(tag.getKey(), tag.getValue());
+                }
+            }
+            return new CreateTagsResult();
+        });
+    }
+
+    @Override
+    public DeleteTagsResult deleteTags(final DeleteTagsRequest request) {
+        return call("DeleteTags", () -> {
+            List<SubnetState> targets = findSubnets(request.getResources());
+            for (SubnetState subnet : targets) {
+                for (Tag tag : request.getTags()) {
+                    if (tag.getValue() == null || tag.getValue().equals(subnet.tags.get(tag.getKey()))) {
+                        subnet.tags.remove(tag.getKey());
+                    }
+                }
+            }
+            return new DeleteTagsResult();
+        });
+    }
+
+    @Override
+    public AssociateSubnetCidrBlockResult associateSubnetCidrBlock(final AssociateSubnetCidrBlockRequest request) {
+        return call("AssociateSubnetCidrBlock", () -> {
+            SubnetState subnet = findSubnets(Collections.singletonList(request.getSubnetId())).get(0);
+            CidrBlock block = CidrBlock.parse(request.getIpv6CidrBlock());
+
+            if (subnet.associations.stream().anyMatch(AssociationState::isActive)) {
+                throw error("InvalidParameterValue", "Subnet " + subnet.id + " already has an IPv6 block");
+            }
+            VpcState vpc = vpcs.get(subnet.vpcId);
+            if (vpc.blocks.values().stream().noneMatch(vpcBlock -> vpcBlock.contains(block))) {
+                throw error("InvalidSubnet.Range", "The CIDR '" + block + "' is invalid");
+            }
+            boolean conflict = subnets.values().stream()
+                    .filter(other -> other.vpcId.equals(subnet.vpcId))
+                    .flatMap(other -> other.associations.stream())
+                    .filter(association -> !"disassociated".equals(association.state))
+                    .anyMatch(association -> association.block.overlaps(block));
+            if (conflict) {
+                throw error("InvalidSubnet.Conflict", "The CIDR '" + block + "' conflicts with another subnet");
+            }
+
+            AssociationState association = new AssociationState(newId("subnet-cidr-assoc"), block);
+            association.fails = failAssociations;
+            association.state = transitionDescribes > 0 ? "associating" : association.settledState();
+            association.remainingDescribes = transitionDescribes;
+            subnet.associations.add(association);
+
+            return new AssociateSubnetCidrBlockResult()
+                    .withSubnetId(subnet.id)
+                    .withIpv6CidrBlockAssociation(association.render());
+        });
+    }
+
+    @Override
+    public DisassociateSubnetCidrBlockResult disassociateSubnetCidrBlock(final DisassociateSubnetCidrBlockRequest request) {
+        return call("DisassociateSubnetCidrBlock", () -> {
+            for (SubnetState subnet : subnets.values()) {
+                for (AssociationState association : subnet.associations) {
+                    if (association.id.equals(request.getAssociationId()) && association.isActive()) {
+                        association.state = transitionDescribes > 0 ? "disassociating" : "disassociated";
+                        association.remainingDescribes = transitionDescribes;
+                        return new DisassociateSubnetCidrBlockResult()
+                                .withSubnetId(subnet.id)
+                                .withIpv6CidrBlockAssociation(association.render());
+                    }
+                }
+            }
+            throw error("InvalidSubnetCidrBlockAssociationID.NotFound",
+                    "The association ID '" + request.getAssociationId() + "' does not exist");
+        });
+    }
+
+    @Override
+    public ModifySubnetAttributeResult modifySubnetAttribute(final ModifySubnetAttributeRequest request) {
+        return call("ModifySubnetAttribute", () -> {
+            SubnetState subnet = findSubnets(Collections.singletonList(request.getSubnetId())).get(0);
+            if (request.getAssignIpv6AddressOnCreation() != null) {
+                subnet.assignIpv6AddressOnCreation = request.getAssignIpv6AddressOnCreation().getValue();
+            }
+            return new ModifySubnetAttributeResult();
+        });
+    }
+
+    @Override
+    public DescribeRouteTablesResult describeRouteTables(final DescribeRouteTablesRequest request) {
+        return call("DescribeRouteTables", () -> {
+            List<RouteTableState> matching = new ArrayList<>();
+            if (request.getRouteTableIds() != null && !request.getRouteTableIds().isEmpty()) {
+                for (String routeTableId : request.getRouteTableIds()) {
+                    matching.add(findRouteTable(routeTableId));
+                }
+            } else {
+                matching.addAll(routeTables.values());
+            }
+
+            Predicate<RouteTableState> filter = routeTableFilter(request.getFilters());
+            List<RouteTableState> filtered = matching.stream().filter(filter).collect(Collectors.toList());
+
+            int offset = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+            int limit = Math.min(pageSize, request.getMaxResults() == null ? Integer.MAX_VALUE : request.getMaxResults());
+            int end = (int)Math.min(filtered.size(), (long)offset + limit);
+
+            return new DescribeRouteTablesResult()
+                    .withRouteTables(filtered.subList(offset, end).stream()
+                            .map(RouteTableState::render)
+                            .collect(Collectors.toList()))
+                    .withNextToken(end < filtered.size() ? Integer.toString(end) : null);
+        });
+    }
+
+    @Override
+    public CreateRouteResult createRoute(final CreateRouteRequest request) {
+        return call("CreateRoute", () -> {
+            RouteTableState routeTable = findRouteTable(request.getRouteTableId());
+            if (routeTable.ipv6Routes.containsKey(request.getDestinationIpv6CidrBlock())) {
+                throw error("RouteAlreadyExists", "The route identified by "
+                        + request.getDestinationIpv6CidrBlock() + " already exists.");
+            }
+            routeTable.ipv6Routes.put(request.getDestinationIpv6CidrBlock(), request.getEgressOnlyInternetGatewayId());
+            return new CreateRouteResult().withReturn(true);
+        });
+    }
+
+    @Override
+    public ReplaceRouteResult replaceRoute(final ReplaceRouteRequest request) {
+        return call("ReplaceRoute", () -> {
+            RouteTableState routeTable = findRouteTable(request.getRouteTableId());
+            if (!routeTable.ipv6Routes.containsKey(request.getDestinationIpv6CidrBlock())) {
+                throw error("InvalidRoute.NotFound", "No route with destination-ipv6-cidr-block "
+                        + request.getDestinationIpv6CidrBlock() + " in route table " + routeTable.id);
+            }
+            routeTable.ipv6Routes.put(request.getDestinationIpv6CidrBlock(), request.getEgressOnlyInternetGatewayId());
+            return new ReplaceRouteResult();
+        });
+    }
+
+    @Override
+    public DeleteRouteResult deleteRoute(final DeleteRouteRequest request) {
+        return call("DeleteRoute", () -> {
+            RouteTableState routeTable = findRouteTable(request.getRouteTableId());
+            if (routeTable.ipv6Routes.remove(request.getDestinationIpv6CidrBlock()) == null) {
+                throw error("InvalidRoute.NotFound", "No route with destination-ipv6-cidr-block "
+                        + request.getDestinationIpv6CidrBlock() + " in route table " + routeTable.id);
+            }
+            return new DeleteRouteResult();
+        });
+    }
+
+    private <T> T call(final String operation, final Supplier<T> body) {
+        callCounts.computeIfAbsent(operation, key -> new AtomicInteger()).incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (throttleRate > 0 && random.nextDouble() < throttleRate) {
+                throttleCount.incrementAndGet();
+                AmazonServiceException throttled = error("RequestLimitExceeded", "Request limit exceeded.");
+                throttled.setStatusCode(503);
+                throw throttled;
+            }
+            return body.get();
+        }
+    }
+
+    private List<SubnetState> findSubnets(final Collection<String> subnetIds) {
+        List<SubnetState> found = new ArrayList<>();
+        for (String subnetId : subnetIds) {
+            SubnetState subnet = subnets.get(subnetId);
+            if (subnet == null) {
+                throw error("InvalidSubnetID.NotFound", "The subnet ID '" + subnetId + "' does not exist");
+            }
+            found.add(subnet);
+        }
+        return found;
+    }
+
+    private RouteTableState findRouteTable(final String routeTableId) {
+        RouteTableState routeTable = routeTables.get(routeTableId);
+        if (routeTable == null) {
+            throw error("InvalidRouteTableID.NotFound", "The routeTable ID '" + routeTableId + "' does not exist");
+        }
+        return routeTable;
+    }
+
+    private static Predicate<SubnetState> subnetFilter(final List<Filter> filters) {
+        Predicate<SubnetState> predicate = subnet -> true;
+        if (filters == null) {
+            return predicate;
+        }
+        for (Filter filter : filters) {
+            Set<String> values = new HashSet<>(filter.getValues());
+            String name = filter.getName();
+            if ("vpc-id".equals(name)) {
+                predicate = predicate.and(subnet -> values.contains(subnet.vpcId));
+            } else if ("availability-zone".equals(name)) {
+                predicate = predicate.and(subnet -> values.contains(subnet.availabilityZone));
+            } else if ("tag-key".equals(name)) {
+                predicate = predicate.and(subnet -> subnet.tags.keySet().stream().anyMatch(values::contains));
+            } else if (name.startsWith("tag:")) {
+                String key = name.substring("tag:".length());
+                predicate = predicate.and(subnet -> values.contains(subnet.tags.get(key)));
+            } else if ("ipv6-cidr-block-association.state".equals(name)) {
+                predicate = predicate.and(subnet -> subnet.associations.stream()
+                        .anyMatch(association -> values.contains(association.state)));
+            } else {
+                throw new IllegalArgumentException("The fake does not support the subnet filter " + name);
+            }
+        }
+        return predicate;
+    }
+
+    private static Predicate<RouteTableState> routeTableFilter(final List<Filter> filters) {
+        Predicate<RouteTableState> predicate = routeTable -> true;
+        if (filters == null) {
+            return predicate;
+        }
+        for (Filter filter : filters) {
+            Set<String> values = new HashSet<>(filter.getValues());
+            String name = filter.getName();
+            if ("vpc-id".equals(name)) {
+                predicate = predicate.and(routeTable -> values.contains(routeTable.vpcId));
+            } else if ("association.subnet-id".equals(name)) {
+                predicate = predicate.and(routeTable -> routeTable.subnetIds.stream().anyMatch(values::contains));
+            } else if ("association.main".equals(name)) {
+                predicate = predicate.and(routeTable -> values.contains(Boolean.toString(routeTable.main)));
+            } else {
+                throw new IllegalArgumentException("The fake does not support the route table filter " + name);
+            }
+        }
+        return predicate;
+    }
+
+    private AmazonServiceException error(final String errorCode, final String message) {
+        errorCounts.computeIfAbsent(errorCode, key -> new AtomicInteger()).incrementAndGet();
+        AmazonServiceException ex = new AmazonServiceException(message);
+        ex.setErrorCode(errorCode);
+        ex.setErrorType(AmazonServiceException.ErrorType.Client);
+        ex.setStatusCode(400);
+        ex.setServiceName("AmazonEC2");
+        return ex;
+    }
+
+    private String newId(final String prefix) {
+        return String.format("%s-%017x", prefix, nextId++);
+    }
+
+    private static class VpcState {
+        private final String id;
+        private final Map<String, CidrBlock> blocks = new LinkedHashMap<>();
+
+        VpcState(final String id) {
+            this.id = id;
+        }
+
+        Vpc render() {
+            return new Vpc()
+                    .withVpcId(id)
+                    .withIpv6CidrBlockAssociationSet(blocks.entrySet().stream()
+                            .map(entry -> new VpcIpv6CidrBlockAssociation()
+                                    .withAssociationId(entry.getKey())
+                                    .withIpv6CidrBlock(entry.getValue().toString())
+                                    .withIpv6CidrBlockState(new VpcCidrBlockState().withState("associated")))
+                            .collect(Collectors.toList()));
+        }
+    }
+
+    private static class SubnetState {
+        private final String id;
+        private final String vpcId;
+        private final String availabilityZone;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private final List<AssociationState> associations = new ArrayList<>();
+        private boolean assignIpv6AddressOnCreation;
+
+        SubnetState(final String id, final String vpcId, final String availabilityZone) {
+            this.id = id;
+            this.vpcId = vpcId;
+            this.availabilityZone = availabilityZone;
+        }
+
+        Subnet render() {
+            return new Subnet()
+                    .withSubnetId(id)
+                    .withVpcId(vpcId)
+                    .withAvailabilityZone(availabilityZone)
+                    .withMapPublicIpOnLaunch(false)
+                    .withAssignIpv6AddressOnCreation(assignIpv6AddressOnCreation)
+                    .withTags(tags.entrySet().stream()
+                            .map(entry -> new Tag(entry.getKey(), entry.getValue()))
+                            .collect(Collectors.toList()))
+                    .withIpv6CidrBlockAssociationSet(associations.stream()
+                            .map(AssociationState::render)
+                            .collect(Collectors.toList()));
+        }
+
+        /**
+         * Moves transitional associations along once they have been seen, and forgets released
+         * ones once they have been seen as released.
+         */
+        void observe() {
+            associations.removeIf(association -> "disassociated".equals(association.state));
+            for (AssociationState association : associations) {
+                if (association.remainingDescribes > 0 && --association.remainingDescribes == 0) {
+                    association.state = "associating".equals(association.state)
+                            ? association.settledState()
+                            : "disassociated";
+                }
+            }
+        }
+    }
+
+    private static class AssociationState {
+        private final String id;
+        private final CidrBlock block;
+        private String state;
+        private int remainingDescribes;
+        private boolean fails;
+
+        AssociationState(final String id, final CidrBlock block) {
+            this.id = id;
+            this.block = block;
+        }
+
+        String settledState() {
+            return fails ? "failed" : "associated";
+        }
+
+        boolean isActive() {
+            return "associating".equals(state) || "associated".equals(state);
+        }
+
+        SubnetIpv6CidrBlockAssociation render() {
+            return new SubnetIpv6CidrBlockAssociation()
+                    .withAssociationId(id)
+                    .withIpv6CidrBlock(block.toString())
+                    .withIpv6CidrBlockState(new SubnetCidrBlockState().withState(state));
+        }
+    }
+
+    private static class RouteTableState {
+        private final String id;
+        private final String vpcId;
+        private final Set<String> subnetIds = new LinkedHashSet<>();
+        private final Map<String, String> ipv6Routes = new LinkedHashMap<>();
+        private boolean main;
+
+        RouteTableState(final String id, final String vpcId) {
+            this.id = id;
+            this.vpcId = vpcId;
+        }
+
+        RouteTable render() {
+            List<RouteTableAssociation> associations = new ArrayList<>();
+            if (main) {
+                associations.add(new RouteTableAssociation().withRouteTableId(id).withMain(true));
+            }
+            for (String subnetId : subnetIds) {
+                associations.add(new RouteTableAssociation().withRouteTableId(id).withSubnetId(subnetId).withMain(false));
+            }
+            return new RouteTable()
+                    .withRouteTableId(id)
+                    .withVpcId(vpcId)
+                    .withAssociations(associations)
+                    .withRoutes(ipv6Routes.entrySet().stream()
+                            .map(entry -> new Route()
+                                    .withDestinationIpv6CidrBlock(entry.getKey())
+                                    .withEgressOnlyInternetGatewayId(entry.getValue()))
+                            .collect(Collectors.toList()));
+        }
+    }
+}
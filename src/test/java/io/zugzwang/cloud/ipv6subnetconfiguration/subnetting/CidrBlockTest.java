@@ -0,0 +1,74 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CidrBlockTest {
+
+    private static final String VPC_CIDR = "2600:1f18:abcd:1200::/56";
+
+    @Test
+    public void parsesAndFormatsIpv6Blocks() {
+        Assertions.assertEquals(VPC_CIDR, CidrBlock.parse(VPC_CIDR).toString());
+        Assertions.assertEquals("2001:db8::/32", CidrBlock.parse("2001:0DB8:0:0:0:0:0:0/32").toString());
+        Assertions.assertEquals("1:0:0:2::3/128", CidrBlock.parse("1:0:0:2:0:0:0:3").toString());
+        Assertions.assertEquals("::ffff:102:304/128", CidrBlock.parse("::ffff:1.2.3.4/128").toString());
+        Assertions.assertEquals("::/0", CidrBlock.parse("::/0").toString());
+    }
+
+    @Test
+    public void parsesAndFormatsIpv4Blocks() {
+        CidrBlock block = CidrBlock.parse("192.168.0.0/16");
+
+        Assertions.assertFalse(block.isIpv6());
+        Assertions.assertEquals(16, block.getPrefixLength());
+        Assertions.assertEquals("192.168.0.0/16", block.toString());
+    }
+
+    @Test
+    public void rejectsInvalidBlocks() {
+        for (String invalid : new String[] { "1::2::3", "1.2.3", "2001:db8::/129", "zz::/3", "1.2.3.4/33" }) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CidrBlock.parse(invalid), invalid);
+        }
+    }
+
+    @Test
+    public void rejectsSignedIpv6Groups() {
+        for (String invalid : new String[] { "2600:+1f::/64", "2600:-0::/64", "-0::/64", "2600:1f18::+1/128" }) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CidrBlock.parse(invalid), invalid);
+        }
+        Assertions.assertEquals("2600:1f::/64", CidrBlock.parse("2600:1F::/64").toString());
+    }
+
+    @Test
+    public void computesNthChildAcrossWordBoundary() {
+        CidrBlock vpc = CidrBlock.parse(VPC_CIDR);
+
+        Assertions.assertEquals("2600:1f18:abcd:12ff::/64", vpc.nthChild(64, 255).toString());
+        Assertions.assertEquals("2600:1f18:abcd:1200:8000::/65", vpc.nthChild(65, 1).toString());
+        Assertions.assertEquals("2600:1f18:abcd:1200:0:1::/96", vpc.nthChild(96, 1).toString());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> vpc.nthChild(64, 256));
+    }
+
+    @Test
+    public void computesChildIndex() {
+        CidrBlock vpc = CidrBlock.parse(VPC_CIDR);
+
+        Assertions.assertEquals(200, vpc.childIndex(vpc.nthChild(64, 200)));
+        Assertions.assertEquals(123456789L, vpc.childIndex(vpc.nthChild(120, 123456789L)));
+        Assertions.assertEquals(-1, vpc.childIndex(CidrBlock.parse("2600:1f18:abcd:1200::1/64")));
+        Assertions.assertEquals(-1, vpc.childIndex(CidrBlock.parse("2600:1f18:abcd:1300::/64")));
+    }
+
+    @Test
+    public void checksContainmentAndOverlap() {
+        CidrBlock vpc = CidrBlock.parse(VPC_CIDR);
+        CidrBlock subnet = CidrBlock.parse("2600:1f18:abcd:1201::/64");
+
+        Assertions.assertTrue(vpc.contains(subnet));
+        Assertions.assertFalse(subnet.contains(vpc));
+        Assertions.assertTrue(subnet.overlaps(vpc));
+        Assertions.assertFalse(subnet.overlaps(CidrBlock.parse("2600:1f18:abcd:1202::/64")));
+        Assertions.assertFalse(vpc.contains(CidrBlock.parse("192.168.0.0/24")));
+    }
+}
@@ -0,0 +1,23 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IndexPlacementTest {
+
+    @Test
+    public void parsesSchemaValues() {
+        Assertions.assertEquals(IndexPlacement.FIRST_FIT, IndexPlacement.fromValue(null));
+        Assertions.assertEquals(IndexPlacement.SUBNET_ID_HASH, IndexPlacement.fromValue("SubnetIdHash"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> IndexPlacement.fromValue("Random"));
+    }
+
+    @Test
+    public void startIndexIsStableAndInRange() {
+        int start = IndexPlacement.startIndex("subnet-0123456789abcdef0", 256);
+
+        Assertions.assertEquals(start, IndexPlacement.startIndex("subnet-0123456789abcdef0", 256));
+        Assertions.assertTrue(start >= 0 && start < 256);
+        Assertions.assertNotEquals(start, IndexPlacement.startIndex("subnet-0123456789abcdef1", 256));
+    }
+}
@@ -0,0 +1,58 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SubnetBlockPoolTest {
+
+    private static final CidrBlock FIRST = CidrBlock.parse("2600:1f18:abcd:1200::/63");
+    private static final CidrBlock SECOND = CidrBlock.parse("2600:1f18:ef01:4500::/63");
+
+    @Test
+    public void movesOnToNextBlockWhenFull() {
+        SubnetBlockPool pool = new SubnetBlockPool(Arrays.asList(FIRST, SECOND), 64);
+        pool.markUsed(CidrBlock.parse("2600:1f18:abcd:1200::/64"));
+        pool.markUsed(CidrBlock.parse("2600:1f18:abcd:1201::/64"));
+
+        SubnetBlockPool.Slot slot = pool.nextFreeSlot(allocator -> 0);
+
+        Assertions.assertEquals(SECOND, slot.getVpcBlock());
+        Assertions.assertEquals(0, slot.getIndex());
+        Assertions.assertEquals(CidrBlock.parse("2600:1f18:ef01:4500::/64"), slot.getBlock());
+        Assertions.assertEquals(4, pool.getCapacity());
+        Assertions.assertEquals(2, pool.getUsedCount());
+    }
+
+    @Test
+    public void marksBlocksInTheVpcBlockThatContainsThem() {
+        SubnetBlockPool pool = new SubnetBlockPool(Arrays.asList(FIRST, SECOND), 64);
+        pool.markUsed(CidrBlock.parse("2600:1f18:ef01:4501::/64"));
+
+        Assertions.assertFalse(pool.allocatorFor(FIRST).get().isUsed(1));
+        Assertions.assertTrue(pool.allocatorFor(SECOND).get().isUsed(1));
+        Assertions.assertSame(pool.allocatorFor(SECOND).get(),
+                pool.allocatorContaining(CidrBlock.parse("2600:1f18:ef01:4501::/64")).get());
+        Assertions.assertFalse(pool.allocatorContaining(CidrBlock.parse("2600:1f18:abcd:1300::/64")).isPresent());
+    }
+
+    @Test
+    public void probesEachBlockFromItsOwnStart() {
+        SubnetBlockPool pool = new SubnetBlockPool(Collections.singletonList(FIRST), 64);
+
+        Assertions.assertEquals(1, pool.nextFreeSlot(allocator -> allocator.getCapacity() - 1).getIndex());
+    }
+
+    @Test
+    public void failsFastWhenEveryBlockIsFull() {
+        SubnetBlockPool pool = new SubnetBlockPool(Arrays.asList(FIRST, SECOND), 63);
+        pool.markUsed(FIRST);
+        pool.markUsed(SECOND);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> pool.nextFreeSlot(allocator -> 0));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new SubnetBlockPool(Collections.emptyList(), 64));
+    }
+}
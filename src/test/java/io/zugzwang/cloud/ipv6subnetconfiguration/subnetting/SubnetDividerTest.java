@@ -1,10 +1,12 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
 
-import inet.ipaddr.ipv6.IPv6Address;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
@@ -18,10 +20,10 @@ public class SubnetDividerTest {
         SubnetDivider divider = new SubnetDivider("192.168.0.0/16");
         List<String> smallCidrs = divider.smallCidrs(24);
 
-        System.out.println(smallCidrs);
-
         Assertions.assertEquals(256, smallCidrs.size());
-            Assertions.assertEquals("192.168.0.0/24", smallCidrs.get(0));
+        Assertions.assertEquals("192.168.0.0/24", smallCidrs.get(0));
+        Assertions.assertEquals("192.168.1.0/24", smallCidrs.get(1));
+        Assertions.assertEquals("192.168.255.0/24", smallCidrs.get(255));
     }
 
     @Test
@@ -29,10 +31,33 @@ public class SubnetDividerTest {
         SubnetDivider divider = new SubnetDivider(BIG_CIDR);
         List<String> smallCidrs = divider.smallCidrs(34);
 
-        System.out.println(smallCidrs);
+        Assertions.assertEquals(
+                Arrays.asList("2001:db8::/34", "2001:db8:4000::/34", "2001:db8:8000::/34", "2001:db8:c000::/34"),
+                smallCidrs);
+    }
+
+    @Test
+    public void pagesThroughIpv6SubnetsCorrectly() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        Assertions.assertEquals(
+                Arrays.asList("2001:db8:4000::/34", "2001:db8:8000::/34"),
+                divider.smallCidrs(34, 1, 2));
+        Assertions.assertEquals(
+                Collections.singletonList("2001:db8:c000::/34"),
+                divider.smallCidrs(34, 3, 10));
+        Assertions.assertTrue(divider.smallCidrs(34, 4, 10).isEmpty());
+    }
+
+    @Test
+    public void streamsSmallSubnetsLazily() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        List<String> firstBlocks = divider.streamSmallCidrs(96)
+                .limit(2)
+                .collect(Collectors.toList());
 
-        Assertions.assertEquals(4, smallCidrs.size());
-        Assertions.assertEquals("2001:db8::/34", smallCidrs.get(0));
+        Assertions.assertEquals(Arrays.asList("2001:db8::/96", "2001:db8::1:0:0/96"), firstBlocks);
     }
 
     @Test
@@ -43,9 +68,59 @@ public class SubnetDividerTest {
         Assertions.assertEquals(1, indexOf);
     }
 
+    @Test
+    public void findsIpv6SubnetsIndexOfNonCanonicalSpelling() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        Assertions.assertEquals(2, divider.rangeIndexOf("2001:0DB8:8000:0:0:0:0:0/34", 34));
+    }
+
+    @Test
+    public void rangeIndexOfRejectsBlocksOutsideOrMisaligned() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        Assertions.assertEquals(-1, divider.rangeIndexOf("2001:db9::/34", 34));
+        Assertions.assertEquals(-1, divider.rangeIndexOf("2001:db8:4000::/35", 34));
+        Assertions.assertEquals(-1, divider.rangeIndexOf("192.168.0.0/24", 34));
+    }
+
+    @Test
+    public void findsNthIpv6SubnetCorrectly() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        Assertions.assertEquals("2001:db8::/34", divider.nthSmallCidr(34, 0));
+        Assertions.assertEquals("2001:db8:c000::/34", divider.nthSmallCidr(34, 3));
+    }
+
+    @Test
+    public void findsNthSubnetWithoutEnumeratingSmallBlocks() {
+        SubnetDivider divider = new SubnetDivider("2600:1f18:abcd:1200::/56");
+
+        Assertions.assertEquals("2600:1f18:abcd:1200::/64", divider.nthSmallCidr(64, 0));
+        Assertions.assertEquals("2600:1f18:abcd:12ff::/64", divider.nthSmallCidr(64, 255));
+        Assertions.assertEquals("2600:1f18:abcd:1200:0:1::/96", divider.nthSmallCidr(96, 1));
+    }
+
+    @Test
+    public void findsNthIpv4SubnetCorrectly() {
+        SubnetDivider divider = new SubnetDivider("192.168.0.0/16");
+
+        Assertions.assertEquals("192.168.17.0/24", divider.nthSmallCidr(24, 17));
+    }
+
+    @Test
+    public void rejectsNthSubnetOutOfRange() {
+        SubnetDivider divider = new SubnetDivider(BIG_CIDR);
+
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> divider.nthSmallCidr(34, 4));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> divider.nthSmallCidr(34, -1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> divider.nthSmallCidr(16, 0));
+    }
+
     @Test
     public void parsesAddress() {
-        IPv6Address address = (IPv6Address)SubnetDivider.parseAddress(BIG_CIDR);
-        Assertions.assertEquals(32, address.getPrefixLength());
+        CidrBlock block = new SubnetDivider(BIG_CIDR).getBigBlock();
+        Assertions.assertTrue(block.isIpv6());
+        Assertions.assertEquals(32, block.getPrefixLength());
     }
 }
@@ -0,0 +1,78 @@
+package io.zugzwang.cloud.ipv6subnetconfiguration.subnetting;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SubnetIndexAllocatorTest {
+
+    private static final CidrBlock VPC_BLOCK = CidrBlock.parse("2600:1f18:abcd:1200::/56");
+
+    @Test
+    public void findsFirstGap() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(VPC_BLOCK, 64);
+        allocator.markUsed(0);
+        allocator.markUsed(1);
+        allocator.markUsed(3);
+
+        Assertions.assertEquals(256, allocator.getCapacity());
+        Assertions.assertEquals(3, allocator.getUsedCount());
+        Assertions.assertEquals(2, allocator.nextFreeIndex());
+    }
+
+    @Test
+    public void marksIndexesFromBlocks() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(VPC_BLOCK, 64);
+        allocator.markUsed(CidrBlock.parse("2600:1f18:abcd:1200::/64"));
+        allocator.markUsed(CidrBlock.parse("2600:1f18:abcd:1201::/80"));
+        allocator.markUsed(CidrBlock.parse("2600:1f18:abcd:1204::/62"));
+        allocator.markUsed(CidrBlock.parse("2600:1f18:abcd:1300::/64"));
+
+        Assertions.assertTrue(allocator.isUsed(0));
+        Assertions.assertTrue(allocator.isUsed(1));
+        Assertions.assertFalse(allocator.isUsed(2));
+        Assertions.assertTrue(allocator.isUsed(7));
+        Assertions.assertEquals(6, allocator.getUsedCount());
+    }
+
+    @Test
+    public void failsFastWhenExhausted() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(VPC_BLOCK, 57);
+        allocator.markUsed(0);
+        allocator.markUsed(1);
+
+        Assertions.assertThrows(IllegalStateException.class, allocator::nextFreeIndex);
+    }
+
+    @Test
+    public void probesFromStartAndWrapsAround() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(VPC_BLOCK, 58);
+        allocator.markUsed(1);
+        allocator.markUsed(2);
+        allocator.markUsed(3);
+
+        Assertions.assertEquals(0, allocator.nextFreeIndexFrom(2));
+        allocator.markUsed(0);
+        Assertions.assertThrows(IllegalStateException.class, () -> allocator.nextFreeIndexFrom(2));
+    }
+
+    @Test
+    public void rejectsIndexesThatDoNotFit() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(VPC_BLOCK, 64);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> allocator.markUsed(256));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> allocator.validateIndex(-1));
+    }
+
+    @Test
+    public void rejectsSplitsTooFineToTrack() {
+        SubnetIndexAllocator allocator = new SubnetIndexAllocator(CidrBlock.parse("2600:1f18:abcd::/48"), 64);
+        allocator.markUsed(CidrBlock.parse("2600:1f18:abcd::/49"));
+
+        Assertions.assertEquals(SubnetIndexAllocator.MAX_CAPACITY, allocator.getCapacity());
+        Assertions.assertEquals(1 << 15, allocator.nextFreeIndex());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new SubnetIndexAllocator(CidrBlock.parse("2600:1f18:abcd::/48"), 80));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new SubnetIndexAllocator(CidrBlock.parse("2600:1f18:abcd::/48"), 112));
+    }
+}
@@ -1,10 +1,17 @@
 package io.zugzwang.cloud.ipv6subnetconfiguration.tagger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 
 import com.amazonaws.services.ec2.model.*;
+import io.zugzwang.cloud.ipv6subnetconfiguration.subnetting.CidrBlock;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -88,6 +95,60 @@ public class SubnetTaggerTest {
         assertEquals(1, request.getTags().size());
     }
 
+    @Test
+    public void tagSubnetsGroupsByIndex() {
+        when(ec2Client.createTags(any(CreateTagsRequest.class))).thenReturn(new CreateTagsResult());
+
+        Map<String, Integer> indexes = new HashMap<>();
+        indexes.put("sn-1", 1);
+        indexes.put("sn-2", 2);
+        indexes.put("sn-3", 1);
+        tagger.tagSubnets(indexes);
+
+        ArgumentCaptor<CreateTagsRequest> requestCaptor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2Client, times(2)).createTags(requestCaptor.capture());
+        List<CreateTagsRequest> requests = requestCaptor.getAllValues();
+
+        assertEquals("1", requests.get(0).getTags().get(0).getValue());
+        assertEquals(new HashSet<>(Arrays.asList("sn-1", "sn-3")), new HashSet<>(requests.get(0).getResources()));
+        assertEquals("2", requests.get(1).getTags().get(0).getValue());
+        assertEquals(Collections.singletonList("sn-2"), requests.get(1).getResources());
+    }
+
+    @Test
+    public void untagSubnetsChunksWithoutDescribing() {
+        when(ec2Client.deleteTags(any(DeleteTagsRequest.class))).thenReturn(new DeleteTagsResult());
+
+        List<String> subnetIds = new ArrayList<>();
+        for (int i = 0; i < SubnetTagger.MAX_RESOURCES_PER_REQUEST + 1; i++) {
+            subnetIds.add("sn-" + i);
+        }
+        tagger.untagSubnets(subnetIds);
+
+        ArgumentCaptor<DeleteTagsRequest> requestCaptor = ArgumentCaptor.forClass(DeleteTagsRequest.class);
+        verify(ec2Client, times(2)).deleteTags(requestCaptor.capture());
+        verify(ec2Client, never()).describeSubnets(any(DescribeSubnetsRequest.class));
+
+        List<DeleteTagsRequest> requests = requestCaptor.getAllValues();
+        assertEquals(SubnetTagger.MAX_RESOURCES_PER_REQUEST, requests.get(0).getResources().size());
+        assertEquals(1, requests.get(1).getResources().size());
+        assertEquals(SubnetTagger.SUBNET_INDEX, requests.get(0).getTags().get(0).getKey());
+        assertNull(requests.get(0).getTags().get(0).getValue());
+    }
+
+    @Test
+    public void untagLoadedSubnetsSkipsUntaggedSubnets() {
+        when(ec2Client.deleteTags(any(DeleteTagsRequest.class))).thenReturn(new DeleteTagsResult());
+
+        tagger.untagLoadedSubnets(Arrays.asList(
+                new Subnet().withSubnetId("sn-1").withTags(new Tag(SubnetTagger.SUBNET_INDEX, "0")),
+                new Subnet().withSubnetId("sn-2")));
+
+        ArgumentCaptor<DeleteTagsRequest> requestCaptor = ArgumentCaptor.forClass(DeleteTagsRequest.class);
+        verify(ec2Client, times(1)).deleteTags(requestCaptor.capture());
+        assertEquals(Collections.singletonList("sn-1"), requestCaptor.getValue().getResources());
+    }
+
     @Test @SuppressWarnings("rawtypes")
     public void getSubnetIndexFromTagFindsValidTag() {
         Subnet thisSubnet = new Subnet()
@@ -99,4 +160,20 @@ public class SubnetTaggerTest {
         assertEquals(3, (int)subnetIndexOp.get());
     }
 
+    @Test
+    public void tagSubnetRecordsVpcBlockInSameCall() {
+        when(ec2Client.createTags(any(CreateTagsRequest.class))).thenReturn(new CreateTagsResult());
+        CidrBlock vpcBlock = CidrBlock.parse("2600:1f18:abcd:1300::/56");
+
+        tagger.tagSubnet("sn-1234", 4, vpcBlock);
+
+        ArgumentCaptor<CreateTagsRequest> requestCaptor = ArgumentCaptor.forClass(CreateTagsRequest.class);
+        verify(ec2Client, times(1)).createTags(requestCaptor.capture());
+        Subnet tagged = new Subnet().withTags(requestCaptor.getValue().getTags());
+
+        assertEquals(Optional.of(4), SubnetTagger.getSubnetIndexFromTag(tagged));
+        assertEquals(Optional.of(vpcBlock), SubnetTagger.getVpcBlockFromTag(tagged));
+        assertEquals(Optional.empty(), SubnetTagger.getVpcBlockFromTag(new Subnet()));
+    }
+
 }